@@ -0,0 +1,128 @@
+package enigma.console;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An <code>OutputStream</code> which decodes the bytes written to it and passes the
+ * resulting characters on to a <code>Writer</code>.  The decoder is stateful, so a
+ * multi-byte character split across two writes is decoded correctly, and the bytes
+ * and characters pass through buffers which are allocated once, so writing does not
+ * allocate.  Malformed input is replaced with the charset's replacement character.
+ *
+ * <p>Bytes may also be written from a <code>ByteBuffer</code>, heap or direct, in
+ * which case they are decoded straight out of it;  only the bytes of a character
+ * split across two writes are copied.</p>
+ */
+class CharsetDecodingOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Writer out;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE); // in write mode between calls
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+
+    /**
+     * Creates a stream which decodes bytes in the specified charset.
+     *
+     *@param out the destination of the decoded characters
+     *@param charset the charset in which bytes are written to the stream
+     */
+    CharsetDecodingOutputStream(Writer out, Charset charset) {
+        this.out = out;
+        decoder = charset.newDecoder()
+                         .onMalformedInput(CodingErrorAction.REPLACE)
+                         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+
+    public synchronized void write(int b) throws IOException {
+        bytes.put((byte) b);
+        decode(false);
+    }
+
+
+    public synchronized void write(byte[] b, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > b.length)
+            throw new IndexOutOfBoundsException();
+        while (length > 0) {
+            int count = Math.min(length, bytes.remaining());
+            bytes.put(b, offset, count);
+            offset += count;
+            length -= count;
+            decode(false);
+        }
+    }
+
+
+    /**
+     * Decodes all the remaining bytes of a buffer, leaving its position at its limit.
+     *
+     *@return the number of bytes written
+     */
+    synchronized int write(ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        while (bytes.position() > 0 && src.hasRemaining()) {
+            // complete the character left over from the previous write
+            bytes.put(src.get());
+            decode(false);
+        }
+        CoderResult result;
+        do {
+            result = decoder.decode(src, chars, false);
+            writeChars();
+        } while (result.isOverflow());
+        bytes.put(src); // an incomplete character at the end of the buffer
+        return count;
+    }
+
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+
+    /**
+     * Decodes any incomplete character left at the end of the input as a replacement
+     * character, and closes the <code>Writer</code>.
+     */
+    public synchronized void close() throws IOException {
+        decode(true);
+        CoderResult result;
+        do {
+            result = decoder.flush(chars);
+            writeChars();
+        } while (result.isOverflow());
+        decoder.reset();
+        out.close();
+    }
+
+
+    // decodes as much of the byte buffer as possible, keeping an incomplete character
+    // at its end for the next write, and writes the characters in bulk
+    private void decode(boolean endOfInput) throws IOException {
+        bytes.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            writeChars();
+        } while (result.isOverflow());
+        bytes.compact();
+    }
+
+
+    private void writeChars() throws IOException {
+        if (chars.position() > 0) {
+            out.write(chars.array(), 0, chars.position());
+            chars.clear();
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package enigma.console;
 
+import java.awt.event.KeyEvent;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.nio.channels.GatheringByteChannel;
+import java.util.BitSet;
+
+import enigma.util.Flow;
 
 /** 
  * A <code>Console</code> is a high-level text component, equivalent to an 
@@ -98,6 +103,20 @@ public interface Console {
     PrintStream getOutputStream();
     
     
+    /** 
+     * Returns a channel which sends its output to this console, for programs which
+     * produce output in <code>ByteBuffers</code>.  Bytes are interpreted in the
+     * same charset as those written to the output stream, and the two may be used
+     * together;  gathering writes are kept together.  Closing the channel does not
+     * close the console.
+     *
+     *@return a channel which sends its output to this console
+     *@throws UnsupportedOperationException if this console does not provide a channel
+     *@see #getOutputStream
+     */
+    GatheringByteChannel getChannel();
+    
+    
     /** 
      * <code>Consoles</code> generally also provide access to the low-level <code>TextWindow</code>
      * API, but they are not required to.  <code>isTextWindowAvailable</code> returns <code>true</code>
@@ -149,4 +168,87 @@ public interface Console {
      *@throws NullPointerException if <code>attributes</code> is <code>null</code>
      */
     void setTextAttributes(TextAttributes attributes);
+    
+    
+    /** 
+     * Removes and returns the oldest queued key event, or returns <code>null</code>
+     * immediately if there is none.  Every key pressed, released or typed while the
+     * console is not reading a line is queued;  if the queue fills up, the oldest
+     * events are discarded.  An event is delivered only once:  keys which the console
+     * has already replayed into a line as typeahead are not returned, and keys
+     * returned here are not replayed.  Unlike <code>readLine</code>, this is cheap
+     * enough to call every frame of a game or animation.
+     *
+     *@return the oldest queued <code>KEY_PRESSED</code>, <code>KEY_RELEASED</code> or <code>KEY_TYPED</code> event, or <code>null</code>
+     *@throws UnsupportedOperationException if this console does not receive individual key events
+     *@see #readKey
+     */
+    KeyEvent pollKey();
+    
+    
+    /** 
+     * Removes and returns the oldest queued key event, waiting up to the specified
+     * time for one to arrive if there is none.
+     *
+     *@param timeout the maximum number of milliseconds to wait, or 0 to wait indefinitely
+     *@return the oldest queued key event, or <code>null</code> if the time elapsed or the thread was interrupted
+     *@throws IllegalArgumentException if <code>timeout</code> is negative
+     *@throws UnsupportedOperationException if this console does not receive individual key events
+     *@see #pollKey
+     */
+    KeyEvent readKey(long timeout);
+    
+    
+    /** 
+     * Returns <code>true</code> if the key with the specified key code is currently
+     * held down.  All keys are treated as released when the window loses the keyboard
+     * focus, since it is not told when they are released elsewhere.  Keys typed while
+     * a program polls key state are meant for it, so a console may leave them out of
+     * the typeahead which it replays into the next line read.
+     *
+     *@param keyCode a key code such as <code>KeyEvent.VK_LEFT</code>
+     *@throws UnsupportedOperationException if this console does not receive individual key events
+     *@see #getPressedKeys
+     */
+    boolean isKeyDown(int keyCode);
+    
+    
+    /** 
+     * Returns a snapshot of the keys currently held down, as a set of key codes.
+     * The returned <code>BitSet</code> belongs to the caller and does not change.
+     *
+     *@return a set in which the bit of each pressed key's code is set
+     *@throws UnsupportedOperationException if this console does not receive individual key events
+     *@see #isKeyDown
+     */
+    BitSet getPressedKeys();
+    
+    
+    /** 
+     * Returns a publisher of the lines entered into this console, for programs which
+     * cannot dedicate a thread to waiting in <code>readLine</code>.  The console
+     * enters edit mode whenever its subscriber has requested more lines than have
+     * been entered, and delivers each line as it is entered, on the thread which
+     * completes it;  subscribers must therefore not block.  The stream completes
+     * when the user signals the end of input.  Only one subscriber may be subscribed
+     * at a time, and lines are delivered to it or to a thread in <code>readLine</code>,
+     * whichever asks first.
+     *
+     *@return a publisher of entered lines, without their line terminators
+     *@throws UnsupportedOperationException if this console cannot publish its input
+     */
+    Flow.Publisher<String> getLinePublisher();
+    
+    
+    /** 
+     * Returns a new subscriber which writes the chunks of text it receives to this
+     * console.  The subscriber never blocks the publisher:  chunks are written on
+     * another thread, and further chunks are only requested once those already
+     * received have reached the console, so a publisher can produce output only as
+     * fast as the console displays it.
+     *
+     *@return a subscriber which may be subscribed to one publisher
+     *@throws UnsupportedOperationException if this console cannot accept output from a publisher
+     */
+    Flow.Subscriber<CharSequence> createOutputSubscriber();
 }
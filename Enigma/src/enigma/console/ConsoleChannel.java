@@ -0,0 +1,61 @@
+package enigma.console;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * The channel returned by {@link DefaultConsoleImpl#getChannel}.  Bytes are decoded
+ * directly out of the buffers written to it by the console's output stream, and so
+ * take the same path to the window as output written to the stream.  Closing the
+ * channel flushes it, but leaves the console and its output stream open.
+ */
+class ConsoleChannel implements GatheringByteChannel {
+    private final CharsetDecodingOutputStream out;
+    private volatile boolean open = true;
+
+
+    ConsoleChannel(CharsetDecodingOutputStream out) {
+        this.out = out;
+    }
+
+
+    public int write(ByteBuffer src) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        return out.write(src);
+    }
+
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > srcs.length)
+            throw new IndexOutOfBoundsException();
+        if (!open)
+            throw new ClosedChannelException();
+        long result = 0;
+        synchronized (out) { // keep the buffers together
+            for (int i = offset; i < offset + length; i++)
+                result += out.write(srcs[i]);
+        }
+        return result;
+    }
+
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+
+    public boolean isOpen() {
+        return open;
+    }
+
+
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package enigma.console;
+
+import java.io.Writer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The <code>Writer</code> behind a {@link DefaultConsoleImpl}'s writer and output
+ * stream.  Characters are collected in a buffer and sent to the <code>TextWindow</code>
+ * in one bulk write, with the window's lock taken once, when a newline is written,
+ * when the buffer fills, when the writer is flushed, or at the latest
+ * <code>FLUSH_DELAY</code> milliseconds after the first buffered character, so that
+ * output without a newline, such as a prompt, still appears promptly.
+ *
+ * <p>While an {@link OutputPipeline} is attached, the buffer is bypassed and output is
+ * handed to the pipeline instead.  The writer's lock is only held while choosing the
+ * pipeline, not while writing to it, so that a thread waiting for room in the pipeline
+ * does not hold up the flush timer, which all consoles share.  The lock is a private
+ * object rather than the writer itself, because a <code>PrintWriter</code> wrapping
+ * the writer holds the writer's monitor for the whole of each call.</p>
+ */
+class ConsoleWriter extends Writer {
+    /** Maximum number of milliseconds characters remain in the buffer. */
+    private static final int FLUSH_DELAY = 20;
+
+    /** Flushes the buffers of all consoles;  created on first use. */
+    private static Timer flushTimer;
+
+    private final TextWindow window;
+    private final char[] buffer;
+    private int count;
+    private TextAttributes textAttributes;
+
+    /** The scheduled flush, or <code>null</code> if none is pending. */
+    private TimerTask pendingFlush;
+
+    /** Carries output to the window asynchronously, or <code>null</code> if output is synchronous. */
+    private OutputPipeline pipeline;
+
+
+    /**
+     * Creates a writer for the specified window.
+     *
+     *@param bufferSize the number of characters to buffer;  0 to write each character immediately
+     */
+    ConsoleWriter(TextWindow window, int bufferSize, TextAttributes textAttributes) {
+        super(new Object());
+        this.window = window;
+        this.textAttributes = textAttributes;
+        buffer = new char[bufferSize];
+    }
+
+
+    /** Flushes the characters written so far and sets the attributes of those which follow. */
+    void setTextAttributes(TextAttributes textAttributes) {
+        synchronized (lock) {
+            flushBuffer();
+            this.textAttributes = textAttributes;
+        }
+    }
+
+
+    /** Returns the attached pipeline, or <code>null</code> if output is synchronous. */
+    OutputPipeline getPipeline() {
+        synchronized (lock) {
+            return pipeline;
+        }
+    }
+
+
+    /**
+     * Attaches a pipeline, or detaches the current one if <code>pipeline</code> is
+     * <code>null</code>.  A detached pipeline is closed once all of its output has
+     * reached the window, so that output stays in order.
+     */
+    void setPipeline(OutputPipeline pipeline) {
+        synchronized (lock) {
+            flushBuffer();
+            if (this.pipeline != null)
+                this.pipeline.close();
+            this.pipeline = pipeline;
+        }
+    }
+
+
+    public void write(int c) {
+        synchronized (lock) {
+            if (pipeline == null) {
+                if (buffer.length == 0) {
+                    window.output((char) c, textAttributes);
+                    return;
+                }
+                if (count == buffer.length)
+                    flushBuffer();
+                buffer[count++] = (char) c;
+                written(count - 1);
+                return;
+            }
+        }
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+
+    public void write(char[] c, int offset, int length) {
+        OutputPipeline pipeline;
+        TextAttributes attributes;
+        synchronized (lock) {
+            pipeline = enterPipeline();
+            attributes = textAttributes;
+            if (pipeline == null) {
+                writeBuffered(c, offset, length);
+                return;
+            }
+        }
+        try {
+            if (pipeline.write(c, offset, length, attributes))
+                scheduleFlush(pipeline);
+        }
+        finally {
+            pipeline.exit();
+        }
+    }
+
+
+    // writes to the buffer, or directly to the window;  called with the lock held
+    private void writeBuffered(char[] c, int offset, int length) {
+        if (buffer.length == 0) {
+            window.output(c, offset, length, textAttributes);
+            return;
+        }
+        int start = count;
+        while (length > buffer.length - count) { // fill and flush the buffer
+            int n = buffer.length - count;
+            System.arraycopy(c, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+            flushBuffer();
+            start = 0;
+        }
+        System.arraycopy(c, offset, buffer, count, length);
+        count += length;
+        written(start);
+    }
+
+
+    public void write(String s, int offset, int length) {
+        OutputPipeline pipeline;
+        TextAttributes attributes;
+        synchronized (lock) {
+            pipeline = enterPipeline();
+            attributes = textAttributes;
+            if (pipeline == null) {
+                writeBuffered(s, offset, length);
+                return;
+            }
+        }
+        try {
+            if (pipeline.write(s, offset, length, attributes))
+                scheduleFlush(pipeline);
+        }
+        finally {
+            pipeline.exit();
+        }
+    }
+
+
+    private void writeBuffered(String s, int offset, int length) {
+        if (buffer.length == 0) {
+            window.output(s.substring(offset, offset + length), textAttributes);
+            return;
+        }
+        int start = count;
+        while (length > buffer.length - count) { // fill and flush the buffer
+            int n = buffer.length - count;
+            s.getChars(offset, offset + n, buffer, count);
+            count += n;
+            offset += n;
+            length -= n;
+            flushBuffer();
+            start = 0;
+        }
+        s.getChars(offset, offset + length, buffer, count);
+        count += length;
+        written(start);
+    }
+
+
+    public void flush() {
+        OutputPipeline pipeline;
+        synchronized (lock) {
+            flushBuffer();
+            pipeline = enterPipeline();
+        }
+        if (pipeline != null) {
+            try {
+                pipeline.flush();
+            }
+            finally {
+                pipeline.exit();
+            }
+        }
+    }
+
+
+    public void close() {
+        flush();
+    }
+
+
+    // returns the attached pipeline, entered so that it is not closed before the caller
+    // exits it, or null if output is synchronous;  called with the lock held
+    private OutputPipeline enterPipeline() {
+        if (pipeline != null)
+            pipeline.enter();
+        return pipeline;
+    }
+
+
+    // schedules publishPartials for a pipeline written to without the lock, unless it
+    // has been detached meanwhile
+    private void scheduleFlush(OutputPipeline written) {
+        synchronized (lock) {
+            if (pipeline == written)
+                scheduleFlush();
+        }
+    }
+
+
+    // called after characters have been added to the buffer at start:  flushes if they
+    // include a newline, and otherwise makes sure that a flush is scheduled
+    private void written(int start) {
+        if (start == count)
+            return;
+        for (int i = count - 1; i >= start; i--) {
+            if (buffer[i] == '\n') {
+                flushBuffer();
+                return;
+            }
+        }
+        scheduleFlush();
+    }
+
+
+    // makes sure that buffered output, and the pipeline's partial lines, are flushed
+    // within FLUSH_DELAY milliseconds
+    private void scheduleFlush() {
+        if (pendingFlush == null) {
+            pendingFlush = new TimerTask() {
+                public void run() {
+                    OutputPipeline pipeline;
+                    synchronized (lock) {
+                        pendingFlush = null;
+                        flushBuffer();
+                        pipeline = enterPipeline();
+                    }
+                    if (pipeline != null) {
+                        try {
+                            if (pipeline.publishPartials())
+                                scheduleFlush(pipeline); // some threads are still writing their lines
+                        }
+                        finally {
+                            pipeline.exit();
+                        }
+                    }
+                }
+            };
+            getFlushTimer().schedule(pendingFlush, FLUSH_DELAY);
+        }
+    }
+
+
+    private void flushBuffer() {
+        if (count > 0) {
+            window.output(buffer, 0, count, textAttributes);
+            count = 0;
+        }
+    }
+
+
+    private static synchronized Timer getFlushTimer() {
+        if (flushTimer == null)
+            flushTimer = new Timer("Console flush", true);
+        return flushTimer;
+    }
+}
@@ -1,127 +1,269 @@
 package enigma.console;
 
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import enigma.core.Enigma;
+import enigma.event.TextPasteListener;
+import enigma.event.TextWindowEvent;
+import enigma.util.Flow;
 
 /** 
  * A concrete Console implementation which hooks up to an arbitrary TextWindow
  * for its low-level functionality.
  *
+ * <p>Entered lines are queued until they are read.  The input stream and reader
+ * deliver them as one continuous stream of input, encoded in the same charset as
+ * the output stream;  typing Ctrl+D or Ctrl+Z on an empty line ends the input.</p>
+ *
+ * <p>Key events which arrive while no line is being read are queued for
+ * {@link #pollKey} and {@link #readKey}, in a lock-free ring which the event thread
+ * fills without ever waiting for a reader, and the state of every key is tracked
+ * for {@link #isKeyDown} and {@link #getPressedKeys}.  The events the line editor
+ * uses are also queued as typeahead, and those which the program does not take are
+ * replayed into the line editor when the console next reads a line, so nothing typed
+ * while a command runs is lost.  The typeahead queue holds
+ * <code>TYPEAHEAD_SIZE</code> events;  once it is full, further keys are refused
+ * with a beep rather than discarding earlier ones.  Keys which arrive while the
+ * program is polling key state with <code>isKeyDown</code> or
+ * <code>getPressedKeys</code> are taken to be meant for it, and are not kept as
+ * typeahead.</p>
+ *
+ * <p>Text pasted into the window is handled a line at a time rather than a key at a
+ * time:  the complete lines are queued and echoed together, and a final incomplete
+ * line is edited as though it had been typed.  Text pasted while no line is being
+ * read is typeahead too, replayed in its place among the keys typed around it.</p>
+ *
+ * <p>Entered lines can also be received without a waiting thread, by subscribing to
+ * {@link #getLinePublisher}:  the console enters edit mode while its subscriber has
+ * outstanding demand, and delivers each line on the event thread as it is entered.</p>
+ *
  *@status.stable
  *@author Ethan Royael Nicholas (<a href="mailto:ethan@ethannicholas.com">ethan@ethannicholas.com</a>)
  */
 public class DefaultConsoleImpl implements Console {
-    private static final Object editLock = new String("editLock");
+    /** Number of characters of output buffered by default. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    
+    /** Asynchronous output overflow policy:  writers wait until there is room in the queue. */
+    public static final int OVERFLOW_BLOCK = 0;
+    
+    /** Asynchronous output overflow policy:  the oldest queued line is discarded to make room. */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    
+    /** Asynchronous output overflow policy:  lines which do not fit are held in an unbounded queue. */
+    public static final int OVERFLOW_SPILL = 2;
+    
+    /** Number of key events queued for pollKey before the oldest are discarded. */
+    private static final int KEY_QUEUE_SIZE = 4096;
     
-    /** true if we are currently accepting user input */
-    private boolean editMode;
+    /** Number of key events held as typeahead before further keys are refused with a beep. */
+    public static final int TYPEAHEAD_SIZE = 8192;
+    
+    /**
+     * Milliseconds after the last call to isKeyDown or getPressedKeys during which
+     * keys are not kept as typeahead.
+     */
+    private static final long KEY_STATE_POLL_INTERVAL = 1000;
+    
+    /** Key codes at or above this value are not tracked by isKeyDown. */
+    private static final int KEY_CODE_LIMIT = 0x10000;
+    
+    /** Queued in place of a line when the user signals the end of input. */
+    private static final String END_OF_INPUT = new String("END_OF_INPUT");
+    
+    /** true if we are currently accepting user input;  cleared by whichever thread ends editing */
+    private final AtomicBoolean editMode = new AtomicBoolean();
+    
+    /** Held while entering or leaving edit mode, so that the two never overlap. */
+    private final Object editTransition = new Object();
     
     /** true to echo asterisks instead of the typed characters while in edit mode */
     private boolean passwordMode;
     
+    /** true while processBuffer replays typeahead;  only used on the event thread */
+    private boolean replaying;
+    
     private int cursorIndex;
     private StringBuffer enteredText = new StringBuffer();
     
     /** The index of the currently displayed command from the command buffer.  */
     private int currentCommandRecall;
     
-    /** A list of all remembered commands. */
-    private List commandRecallBuffer = new ArrayList();
+    /** A list of all remembered commands;  guarded by editTransition, as is currentCommandRecall. */
+    private final List<String> commandRecallBuffer = new ArrayList<String>();
+    
+    /** Lines which have been entered but not yet read, oldest first. */
+    private final Queue<String> completedLines = new ConcurrentLinkedQueue<String>();
+    
+    /** Allows one thread at a time to wait for a line, through readLine, readPassword or the input stream. */
+    private final Object readLock = new Object();
+    
+    /** The thread waiting in readLine for a line to be entered, or null if there is none. */
+    private volatile Thread waitingReader;
+    
+    /** The subscription of the line publisher's subscriber, or null if there is none. */
+    private final AtomicReference<LineSubscription> lineSubscription = new AtomicReference<LineSubscription>();
+    
+    /** Key events received while not in edit mode, for pollKey and readKey. */
+    private final KeyEventRing keyEvents = new KeyEventRing(KEY_QUEUE_SIZE);
+    
+    /**
+     * Typeahead for processBuffer, in the order it arrived:  the entries of keyEvents
+     * which the line editor uses, and strings of pasted text.  Only used on the event
+     * thread.
+     */
+    private final ArrayDeque<Object> typeahead = new ArrayDeque<Object>();
+    
+    /** One bit per key code, set while the key is held down;  written only by the event thread. */
+    private final AtomicLongArray pressedKeys = new AtomicLongArray(KEY_CODE_LIMIT / 64);
+    
+    /** When isKeyDown or getPressedKeys was last called, or 0 if they have not been. */
+    private volatile long keyStatePollTime;
+    
+    /** Allows one thread at a time to wait in readKey. */
+    private final Object keyReadLock = new Object();
+    
+    /** The thread waiting in readKey for a key event, or null if there is none. */
+    private volatile Thread waitingKeyReader;
+    
+    /** The charset in which the input and output streams encode characters. */
+    private final Charset charset = Charset.defaultCharset();
     
 
     /** The TextWindow this Console is managing. */
     private TextWindow window;
     
     
-    /** The TextAttributes used for stream & writer output. */
+    /**
+     * The TextAttributes used for stream & writer output;  taken from the theme when
+     * the console is created, so a later change to the theme applies to consoles
+     * created after it.
+     */
     private TextAttributes textAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
     
     
-    private PrintWriter consoleWriter = new PrintWriter(new Writer() {
-        public void close() { }
-        
-        
-        public void flush() { }
-        
-        
-        public void write(char c) {
-            window.output(c, textAttributes);
-        }
-        
-        
-        public void write(char[] c, int offset, int length) {
-            window.output(c, offset, length, textAttributes);
-        }
-        
-        
-        public void write(String str) {
-            window.output(str, textAttributes);
-        }
-    });
+    /** Buffers stream & writer output, so that it reaches the window in large runs. */
+    private ConsoleWriter bufferedWriter;
     
+    private PrintWriter consoleWriter;
     
-    private PrintStream consolePrintStream = new PrintStream(new OutputStream() {
-        public void close() {
-            consoleWriter.close();
-        }
-        
+    
+    private PrintStream consolePrintStream;
+    
+    
+    /** Decodes bytes written to the output stream or the channel. */
+    private CharsetDecodingOutputStream decodingStream;
+    
+    
+    private GatheringByteChannel consoleChannel;
+    
+    
+    private InputStream consoleInputStream = new InputStream() {
+        private final byte[] single = new byte[1];
+        private byte[] line = new byte[0]; // the encoded line being read, including its newline
+        private int position;
+        private boolean ended; // the end of input has been taken from the queue, but not yet reported
         
-        public void flush() {
-            consoleWriter.flush();
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
         }
         
         
-        public void write(int b) {
-            consoleWriter.write((char) b);
+        // blocks only if no input at all is available, and otherwise returns as much
+        // of the queued input as fits, spanning lines
+        public synchronized int read(byte[] b, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > b.length)
+                throw new IndexOutOfBoundsException();
+            if (length == 0)
+                return 0;
+            if (position == line.length) {
+                if (ended) {
+                    ended = false;
+                    return -1;
+                }
+                String text = takeLine(true);
+                if (text == null)
+                    throw new InterruptedIOException();
+                if (text == END_OF_INPUT)
+                    return -1;
+                setLine(text);
+            }
+            int count = 0;
+            for (;;) {
+                int n = Math.min(length - count, line.length - position);
+                System.arraycopy(line, position, b, offset + count, n);
+                position += n;
+                count += n;
+                if (count == length)
+                    break;
+                String text = completedLines.poll();
+                if (text == null)
+                    break;
+                if (text == END_OF_INPUT) {
+                    ended = true;
+                    break;
+                }
+                setLine(text);
+            }
+            return count;
         }
         
         
-        public void write(byte[] b, int offset, int length) {
-            consoleWriter.write(new String(b, offset, length));
+        public synchronized int available() {
+            int result = line.length - position;
+            if (ended)
+                return result;
+            for (Iterator<String> i = completedLines.iterator(); i.hasNext(); ) {
+                String text = i.next();
+                if (text == END_OF_INPUT)
+                    break;
+                result += encode(text).length;
+            }
+            return result;
         }
         
         
-        public void write(byte[] b) {
-            consoleWriter.write(new String(b));
-        }
-    });
-    
-    
-    private InputStream consoleInputStream = new InputStream() {
-        byte[] data;
-        int offset;
-        
-        public int read() {
-            if (data == null) {
-                data = (readLine() + "\n").getBytes();
-                offset = 0;
-            }
-            if (offset >= data.length) {
-                data = null;
-                return -1;
-            }
-            return data[offset++];
+        private void setLine(String text) {
+            line = encode(text);
+            position = 0;
         }
         
         
-        public int available() {
-            return data != null ? data.length - offset : 0;
+        private byte[] encode(String text) {
+            return (text + "\n").getBytes(charset);
         }
     };
 
 
-    private Reader consoleReader = new InputStreamReader(consoleInputStream);              
+    private Reader consoleReader = new InputStreamReader(consoleInputStream, charset);
         
     
     
@@ -134,10 +276,44 @@ public class DefaultConsoleImpl implements Console {
      *@param window the <code>TextWindow</code> to use for low-level input and output
      */
     public DefaultConsoleImpl(TextWindow window) {
+        this(window, DEFAULT_BUFFER_SIZE);
+    }
+    
+    
+    /** 
+     * Creates a <code>Console</code> wrapping the specified {@link TextWindow}, with
+     * an output buffer of the specified size.  Output sent to the console's writer
+     * and output stream is buffered until a newline is written, the buffer fills, the
+     * writer or stream is flushed, the console reads a line, or a few milliseconds
+     * have passed, and is then sent to the <code>TextWindow</code> in a single
+     * operation.
+     *
+     *@param window the <code>TextWindow</code> to use for low-level input and output
+     *@param bufferSize the number of characters of output to buffer, or 0 to send each character to the window as it is written
+     *@throws IllegalArgumentException if <code>bufferSize</code> is negative
+     */
+    public DefaultConsoleImpl(TextWindow window, int bufferSize) {
         if (window == null)
             throw new NullPointerException();
+        if (bufferSize < 0)
+            throw new IllegalArgumentException("bufferSize must be non-negative: " + bufferSize);
         this.window = window;
+        bufferedWriter = new ConsoleWriter(window, bufferSize, textAttributes);
+        consoleWriter = new PrintWriter(bufferedWriter);
+        decodingStream = new CharsetDecodingOutputStream(consoleWriter, charset);
+        consolePrintStream = new PrintStream(decodingStream);
+        consoleChannel = new ConsoleChannel(decodingStream);
         window.addKeyListener(createKeyListener());
+        window.addFocusListener(new FocusAdapter() {
+            public void focusLost(FocusEvent e) {
+                clearPressedKeys(); // their releases will go to another window
+            }
+        });
+        window.addTextPasteListener(new TextPasteListener() {
+            public void textPasted(TextWindowEvent e) {
+                paste(e.getText());
+            }
+        });
         window.setCursorType(TextWindow.CURSOR_INVISIBLE);
     }
     
@@ -145,100 +321,349 @@ public class DefaultConsoleImpl implements Console {
     protected KeyListener createKeyListener() {
         return new KeyListener() {
             public void keyPressed(KeyEvent e) {
-                if (e.getKeyChar() == KeyEvent.CHAR_UNDEFINED || e.getKeyCode() == KeyEvent.VK_DELETE) {
-                    if (editMode)
-                        handleKeyPressed(e.getKeyCode());
-                    else
-                        buffer(e);
-                }
+                setKeyDown(e.getKeyCode(), true);
+                handleKeyEvent(e);
             }
 
             public void keyReleased(KeyEvent e) {
-                if (e.getKeyChar() == KeyEvent.CHAR_UNDEFINED) {
-                    if (editMode)
-                        handleKeyReleased(e.getKeyCode());
-                    else
-                        buffer(e);
-                }
+                setKeyDown(e.getKeyCode(), false);
+                handleKeyEvent(e);
             }
 
             public void keyTyped(KeyEvent e) {
-                if (editMode)
-                    handleKeyTyped(e.getKeyChar());
-                else
-                    buffer(e);
+                handleKeyEvent(e);
             }
         };
     }
     
     
+    // called on the event thread with each key event:  edits the line if the console
+    // is in edit mode and no typeahead is waiting to be replayed before it, and
+    // otherwise queues the event
+    private void handleKeyEvent(KeyEvent e) {
+        if (editMode.get() && typeahead.isEmpty())
+            edit(e);
+        else {
+            buffer(e);
+            if (editMode.get())
+                processBuffer(); // editing began while the event was being queued
+        }
+    }
+    
+    
+    // applies a key event to the line being edited
+    private void edit(KeyEvent e) {
+        switch (e.getID()) {
+            case KeyEvent.KEY_PRESSED:  if (e.getKeyChar() == KeyEvent.CHAR_UNDEFINED || e.getKeyCode() == KeyEvent.VK_DELETE)
+                                            handleKeyPressed(e.getKeyCode());
+                                        break;
+            case KeyEvent.KEY_RELEASED: if (e.getKeyChar() == KeyEvent.CHAR_UNDEFINED)
+                                            handleKeyReleased(e.getKeyCode());
+                                        break;
+            case KeyEvent.KEY_TYPED:    handleKeyTyped(e.getKeyChar());
+                                        break;
+        }
+    }
+    
+    
+    /** 
+     * Called on the event thread with each key event which arrives while the console
+     * is not reading a line, or while typeahead is still waiting to be replayed.
+     * Queues the event for {@link #pollKey} and {@link #readKey}, and, if the line
+     * editor uses it and the program is not polling key state, as typeahead for
+     * {@link #processBuffer};  whichever takes it first receives it.
+     */
     protected void buffer(KeyEvent e) {
+        KeyEventRing.Entry entry = new KeyEventRing.Entry(e);
+        keyEvents.add(entry);
+        LockSupport.unpark(waitingKeyReader);
+        if (isEditorEvent(e) && System.currentTimeMillis() - keyStatePollTime > KEY_STATE_POLL_INTERVAL)
+            queueTypeahead(entry);
+    }
+    
+    
+    // returns true if edit acts on the event
+    private static boolean isEditorEvent(KeyEvent e) {
+        switch (e.getID()) {
+            case KeyEvent.KEY_PRESSED: return e.getKeyChar() == KeyEvent.CHAR_UNDEFINED || e.getKeyCode() == KeyEvent.VK_DELETE;
+            case KeyEvent.KEY_TYPED:   return true;
+            default:                   return false;
+        }
+    }
+    
+    
+    // adds a key entry or pasted text to the typeahead, after dropping the entries at
+    // its head which pollKey or readKey have taken;  if it is still full, the item is
+    // refused with a beep, so that what was typed first is kept
+    private void queueTypeahead(Object item) {
+        while (!typeahead.isEmpty() && typeahead.peekFirst() instanceof KeyEventRing.Entry
+                && ((KeyEventRing.Entry) typeahead.peekFirst()).isClaimed())
+            typeahead.removeFirst();
+        if (typeahead.size() >= TYPEAHEAD_SIZE)
+            Toolkit.getDefaultToolkit().beep();
+        else
+            typeahead.addLast(item);
+    }
+    
+    
+    // records a key as pressed or released;  called only on the event thread
+    private void setKeyDown(int keyCode, boolean down) {
+        if (keyCode <= 0 || keyCode >= KEY_CODE_LIMIT)
+            return;
+        int index = keyCode >> 6;
+        long bit = 1L << (keyCode & 63);
+        long word = pressedKeys.get(index);
+        pressedKeys.set(index, down ? word | bit : word & ~bit);
+    }
+    
+    
+    // records all keys as released;  called only on the event thread
+    private void clearPressedKeys() {
+        for (int i = 0; i < pressedKeys.length(); i++)
+            pressedKeys.set(i, 0);
     }
     
 
+    /** 
+     * Replays typeahead, keys and pasted text in the order they arrived, through the
+     * line editor, as though it had been typed now, until the queue is empty or a line
+     * is completed;  the rest remains queued for the next line.  Keys which
+     * {@link #pollKey} or {@link #readKey} have taken are skipped.  The echoed
+     * characters are drawn by a single repaint once the replay is done, rather than
+     * one per character.  Called when the
+     * console enters edit mode;  if called on any thread but the event thread, the
+     * replay is scheduled on the event thread.
+     */
     protected void processBuffer() {
+        if (!EventQueue.isDispatchThread()) {
+            EventQueue.invokeLater(new Runnable() {
+                public void run() {
+                    processBuffer();
+                }
+            });
+            return;
+        }
+        replaying = true;
+        try {
+            while (editMode.get() && !typeahead.isEmpty()) {
+                Object item = typeahead.removeFirst();
+                if (item instanceof String)
+                    insertPastedText((String) item);
+                else {
+                    KeyEventRing.Entry entry = (KeyEventRing.Entry) item;
+                    if (entry.claim()) // otherwise pollKey or readKey took it
+                        edit(entry.event);
+                }
+            }
+        }
+        finally {
+            replaying = false;
+        }
+    }
+    
+    
+    /** 
+     * Called on the event thread with text pasted into the window.  The complete
+     * lines are queued for readers all at once and echoed with a single write, and
+     * a final incomplete line is inserted into the line being edited, or into the
+     * next line if the text completed this one.  Text pasted while the console is
+     * not reading a line, or while typeahead is waiting to be replayed, is queued as
+     * typeahead behind it.  While a password is being read, only the first line is
+     * taken, and the lines after it remain typeahead for the next read.  Control
+     * characters other than line breaks are ignored, and tabs become spaces.
+     */
+    protected void paste(String text) {
+        if (editMode.get() && typeahead.isEmpty())
+            insertPastedText(text);
+        else {
+            queueTypeahead(text);
+            if (editMode.get())
+                processBuffer(); // editing began while the text was being queued
+        }
+    }
+    
+    
+    // applies pasted text to the line being edited, as described by paste
+    private void insertPastedText(String text) {
+        text = cleanPastedText(text);
+        int newline = text.indexOf('\n');
+        if (newline == -1) {
+            insertText(text);
+            return;
+        }
+        enteredText.insert(cursorIndex, text.substring(0, newline));
+        String rest = enteredText.substring(cursorIndex);
+        StringBuffer echo = new StringBuffer(rest.length() + text.length());
+        echo.append(passwordMode ? mask(rest) : rest).append('\n');
+        List<String> lines = new ArrayList<String>();
+        lines.add(enteredText.toString());
+        int start = newline + 1;
+        while (!passwordMode && (newline = text.indexOf('\n', start)) != -1) {
+            lines.add(text.substring(start, newline));
+            echo.append(text, start, newline + 1);
+            start = newline + 1;
+        }
+        if (!exitEditMode())
+            return; // the reader was interrupted and has given up
+        if (start < text.length())
+            typeahead.addFirst(text.substring(start)); // edited once the next line is read
+        window.output(echo.toString(), textAttributes);
+        completedLines.addAll(lines);
+        linesCompleted();
+    }
+    
+    
+    // converts line breaks to '\n' and tabs to spaces, and removes other control characters
+    private static String cleanPastedText(String text) {
+        StringBuffer result = new StringBuffer(text.length());
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                result.append('\n');
+                if (i + 1 < length && text.charAt(i + 1) == '\n')
+                    i++;
+            }
+            else if (c == '\t')
+                result.append(' ');
+            else if (c > 31 || c == '\n')
+                result.append(c);
+        }
+        return result.toString();
+    }
+    
+    
+    // inserts text without line breaks at the cursor, echoing it with a single write
+    private void insertText(String text) {
+        enteredText.insert(cursorIndex, text);
+        String rest = enteredText.substring(cursorIndex);
+        window.output(passwordMode ? mask(rest) : rest, textAttributes);
+        cursorIndex = enteredText.length();
+        moveCursor(text.length() - rest.length()); // back over the text which followed the cursor
+    }
+    
+    
+    private static String mask(String text) {
+        char[] result = new char[text.length()];
+        Arrays.fill(result, '*');
+        return new String(result);
     }
 
 
+    // called on a reading thread, or on the event thread for the line publisher;
+    // setting editMode publishes the edit state to the event thread.  Does nothing if
+    // the console is already in edit mode.
     private void enterEditMode() {
-        //assert Thread.holdsLock(editLock);
-        window.setCursorType(TextWindow.CURSOR_INSERT);
-        editMode = true;
-        enteredText.setLength(0);
-        cursorIndex = 0;
-        currentCommandRecall = commandRecallBuffer.size();
-        commandRecallBuffer.add("");
+        synchronized (editTransition) {
+            if (editMode.get())
+                return;
+            window.setCursorType(TextWindow.CURSOR_INSERT);
+            enteredText.setLength(0);
+            cursorIndex = 0;
+            currentCommandRecall = commandRecallBuffer.size();
+            commandRecallBuffer.add("");
+            editMode.set(true);
+        }
         processBuffer();
     }
     
     
-    private void exitEditMode() {
-        //assert Thread.holdsLock(editLock);
-        window.setCursorType(TextWindow.CURSOR_INVISIBLE);
-        editMode = false;
-        if (enteredText.length() > 0)
-            commandRecallBuffer.set(commandRecallBuffer.size() - 1, enteredText.toString());
-        else
-            commandRecallBuffer.remove(commandRecallBuffer.size() - 1);
+    // leaves edit mode, returning false if another thread already has
+    private boolean exitEditMode() {
+        synchronized (editTransition) {
+            if (!editMode.compareAndSet(true, false))
+                return false;
+            window.setCursorType(TextWindow.CURSOR_INVISIBLE);
+            if (enteredText.length() > 0)
+                commandRecallBuffer.set(commandRecallBuffer.size() - 1, enteredText.toString());
+            else
+                commandRecallBuffer.remove(commandRecallBuffer.size() - 1);
+            return true;
+        }
     }
 
     
-    public synchronized String readLine() {
-        String result;
-        synchronized (editLock) {
-            enterEditMode();
-            try {
-                editLock.wait();
-                // exitEditMode is performed in event thread
-            }
-            catch (InterruptedException e) { }
-            result = enteredText.toString();
+    public String readLine() {
+        String result = takeLine(false);
+        return result != END_OF_INPUT ? result : "";
+    }
+    
+    
+    // returns the oldest completed line, first entering edit mode and waiting for the
+    // user to enter one if there is none.  The line is handed over from the event thread
+    // through completedLines, and the waiting thread is parked rather than blocked on a
+    // monitor, so consoles never wait on each other.  If the wait is interrupted, editing
+    // is abandoned and the text entered so far is returned, unless interruptible is
+    // true, in which case null is returned and the thread's interrupted status is kept.
+    private String takeLine(boolean interruptible) {
+        synchronized (readLock) {
+            return takeLineLocked(interruptible);
         }
-        return result;
     }
     
     
-    public synchronized String readPassword() {
+    private String takeLineLocked(boolean interruptible) {
+        consolePrintStream.flush(); // show any prompt before accepting input
+        String line = completedLines.poll();
+        if (line != null)
+            return line;
+        
+        waitingReader = Thread.currentThread();
+        boolean interrupted = false;
         try {
-            passwordMode = true;
-            return readLine();
+            enterEditMode();
+            while ((line = completedLines.poll()) == null) {
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    // enteredText is a StringBuffer, so its contents are visible here
+                    String result = enteredText.toString();
+                    if (exitEditMode()) {
+                        if (!interruptible)
+                            return result;
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                    // otherwise the event thread ended editing first, and is about to queue the line
+                }
+                LockSupport.park(this);
+            }
+            if (interrupted && interruptible)
+                Thread.currentThread().interrupt();
+            return line;
         }
         finally {
-            passwordMode = false;
+            waitingReader = null;
+        }
+    }
+    
+    
+    public String readPassword() {
+        synchronized (readLock) { // so that no other reader's line is masked
+            try {
+                passwordMode = true;
+                return readLine();
+            }
+            finally {
+                passwordMode = false;
+            }
         }
     }
     
 
     protected void setCommandRecall(int newIndex) {
-        commandRecallBuffer.set(currentCommandRecall, enteredText.toString());
-        currentCommandRecall = newIndex;
+        String recalled;
+        synchronized (editTransition) {
+            commandRecallBuffer.set(currentCommandRecall, enteredText.toString());
+            currentCommandRecall = newIndex;
+            recalled = commandRecallBuffer.get(newIndex);
+        }
         int oldLength = enteredText.length();
         enteredText = new StringBuffer(oldLength);
         for (int i = 0; i < oldLength; i++)
             enteredText.append(' ');
         moveCursor(-cursorIndex);
         refreshEndOfString();
-        enteredText = new StringBuffer((String) commandRecallBuffer.get(currentCommandRecall));
+        enteredText = new StringBuffer(recalled);
         refreshEndOfString();
         moveCursor(enteredText.length());
         //assert cursorIndex == enteredText.length() : "expected cursorIndex to be at end of string (length = " + enteredText.length() + ", cursorIndex = " + cursorIndex + ")";
@@ -246,13 +671,19 @@ public class DefaultConsoleImpl implements Console {
     
 
     public void commandRecallUp() {
-        int newIndex = Math.max(0, currentCommandRecall - 1);
+        int newIndex;
+        synchronized (editTransition) {
+            newIndex = Math.max(0, currentCommandRecall - 1);
+        }
         setCommandRecall(newIndex);
     }
     
 
     public void commandRecallDown() {
-        int newIndex = Math.min(commandRecallBuffer.size() - 1, currentCommandRecall + 1);
+        int newIndex;
+        synchronized (editTransition) {
+            newIndex = Math.min(commandRecallBuffer.size() - 1, currentCommandRecall + 1);
+        }
         setCommandRecall(newIndex);
     }
     
@@ -317,19 +748,20 @@ public class DefaultConsoleImpl implements Console {
         else if (keyChar == '\n') { // newline
             moveCursor(enteredText.length() - cursorIndex);
             window.output('\n', textAttributes);
-            synchronized (editLock) {
-                editLock.notify();
-                exitEditMode();
-            }
+            completeLine(enteredText.toString());
         }
+        else if ((keyChar == 4 || keyChar == 26) && enteredText.length() == 0) // ^D or ^Z
+            completeLine(END_OF_INPUT);
         else if (keyChar > 31) { // non-control character
             enteredText.insert(cursorIndex++, keyChar);
             
-            // this moves the cursor, so no moveCursor(1) needed
-            if (!passwordMode)
-                window.outputImmediately(keyChar, textAttributes); 
+            // this moves the cursor, so no moveCursor(1) needed;  replayed typeahead is
+            // drawn by the window's next scheduled repaint rather than immediately
+            char echo = passwordMode ? '*' : keyChar;
+            if (replaying)
+                window.output(echo, textAttributes);
             else
-                window.outputImmediately('*', textAttributes);
+                window.outputImmediately(echo, textAttributes);
                 
             if (cursorIndex < enteredText.length())
                 refreshEndOfString();
@@ -339,6 +771,25 @@ public class DefaultConsoleImpl implements Console {
     }
 
 
+    // leaves edit mode and hands an entered line to the waiting reader, or to the line
+    // publisher's subscriber
+    private void completeLine(String line) {
+        if (!exitEditMode())
+            return; // the reader was interrupted and has given up
+        completedLines.add(line);
+        linesCompleted();
+    }
+    
+    
+    // wakes the waiting reader and the line publisher's subscriber once lines have been queued
+    private void linesCompleted() {
+        LockSupport.unpark(waitingReader);
+        LineSubscription subscription = lineSubscription.get();
+        if (subscription != null)
+            subscription.drain();
+    }
+    
+    
     private void clearEnteredText() {
         moveCursor(-cursorIndex);
         for (int i = 0; i < enteredText.length(); i++)
@@ -368,12 +819,155 @@ public class DefaultConsoleImpl implements Console {
     }
     
     
+    /** 
+     * Switches the console's writer and output stream to asynchronous output.  Each
+     * thread's output is collected into complete lines, which are queued and applied
+     * to the <code>TextWindow</code> in batches by a dedicated thread, so writing
+     * threads do not wait for the window, and lines written by different threads do
+     * not interleave.  A partial line is queued when its thread flushes, and otherwise
+     * after a few milliseconds.  Flushing the writer or output stream, and reading a
+     * line, wait until all queued output has reached the window.
+     *
+     *@param capacity the number of lines the queue holds before the overflow policy applies
+     *@param overflowPolicy one of <code>OVERFLOW_BLOCK</code>, <code>OVERFLOW_DROP_OLDEST</code> or <code>OVERFLOW_SPILL</code>
+     *@throws IllegalArgumentException if <code>capacity</code> is not positive or <code>overflowPolicy</code> is invalid
+     *@see #stopAsynchronousOutput
+     */
+    public void startAsynchronousOutput(int capacity, int overflowPolicy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (overflowPolicy != OVERFLOW_BLOCK && overflowPolicy != OVERFLOW_DROP_OLDEST && overflowPolicy != OVERFLOW_SPILL)
+            throw new IllegalArgumentException("invalid overflow policy: " + overflowPolicy);
+        bufferedWriter.setPipeline(new OutputPipeline(window, capacity, overflowPolicy));
+    }
+    
+    
+    /** 
+     * Returns the console to synchronous output, once all queued output has reached
+     * the <code>TextWindow</code>.  Has no effect if output is already synchronous.
+     *
+     *@see #startAsynchronousOutput
+     */
+    public void stopAsynchronousOutput() {
+        bufferedWriter.setPipeline(null);
+    }
+    
+    
+    /** Returns <code>true</code> if asynchronous output is in effect. */
+    public boolean isAsynchronousOutput() {
+        return bufferedWriter.getPipeline() != null;
+    }
+    
+    
+    /** 
+     * Returns the number of lines discarded by the <code>OVERFLOW_DROP_OLDEST</code>
+     * policy since asynchronous output was started, or 0 if output is synchronous.
+     */
+    public long getDroppedLineCount() {
+        OutputPipeline pipeline = bufferedWriter.getPipeline();
+        return pipeline != null ? pipeline.getDroppedCount() : 0;
+    }
+    
+    
+    public KeyEvent pollKey() {
+        return keyEvents.poll();
+    }
+    
+    
+    public KeyEvent readKey(long timeout) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout must be non-negative: " + timeout);
+        consolePrintStream.flush(); // show any prompt before waiting
+        synchronized (keyReadLock) {
+            KeyEvent result = keyEvents.poll();
+            if (result != null)
+                return result;
+            long deadline = System.nanoTime() + timeout * 1000000;
+            waitingKeyReader = Thread.currentThread();
+            try {
+                while ((result = keyEvents.poll()) == null) {
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0)
+                            return null;
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                }
+                return result;
+            }
+            finally {
+                waitingKeyReader = null;
+            }
+        }
+    }
+    
+    
+    public boolean isKeyDown(int keyCode) {
+        keyStatePollTime = System.currentTimeMillis();
+        if (keyCode <= 0 || keyCode >= KEY_CODE_LIMIT)
+            return false;
+        return (pressedKeys.get(keyCode >> 6) & (1L << (keyCode & 63))) != 0;
+    }
+    
+    
+    public BitSet getPressedKeys() {
+        keyStatePollTime = System.currentTimeMillis();
+        BitSet result = new BitSet();
+        int length = pressedKeys.length();
+        for (int i = 0; i < length; i++) {
+            long word = pressedKeys.get(i);
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                result.set((i << 6) + bit);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+    
+    
+    public Flow.Publisher<String> getLinePublisher() {
+        return new Flow.Publisher<String>() {
+            public void subscribe(Flow.Subscriber<? super String> subscriber) {
+                if (subscriber == null)
+                    throw new NullPointerException();
+                LineSubscription subscription = new LineSubscription(subscriber);
+                if (!lineSubscription.compareAndSet(null, subscription)) {
+                    // a subscription which does nothing, so that requests made before
+                    // the error arrives cannot take lines from the console
+                    subscriber.onSubscribe(new Flow.Subscription() {
+                        public void request(long n) {
+                        }
+                        
+                        public void cancel() {
+                        }
+                    });
+                    subscriber.onError(new IllegalStateException("the console already has a line subscriber"));
+                    return;
+                }
+                subscriber.onSubscribe(subscription);
+                subscription.drain();
+            }
+        };
+    }
+    
+    
+    public Flow.Subscriber<CharSequence> createOutputSubscriber() {
+        return new OutputSubscriber(consoleWriter);
+    }
+    
+    
     public TextAttributes getTextAttributes() {
         return textAttributes;
     }
     
     
     public void setTextAttributes(TextAttributes textAttributes) {
+        bufferedWriter.setTextAttributes(textAttributes);
         this.textAttributes = textAttributes;
     }
     
@@ -398,6 +992,11 @@ public class DefaultConsoleImpl implements Console {
     }
     
     
+    public GatheringByteChannel getChannel() {
+        return consoleChannel;
+    }
+    
+    
     public boolean isTextWindowAvailable() {
         return true;
     }
@@ -416,4 +1015,110 @@ public class DefaultConsoleImpl implements Console {
     public void setTitle(String title) {
         window.setTitle(title);
     }
-}
\ No newline at end of file
+    
+    
+    // delivers completed lines to a line publisher subscriber as it requests them.  The
+    // subscriber's methods are only called from drain, which one thread at a time runs.
+    private class LineSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super String> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        
+        /** Number of calls to drain since it last caught up;  drain is running while non-zero. */
+        private final AtomicInteger pending = new AtomicInteger();
+        
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+        
+        
+        LineSubscription(Flow.Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+        
+        
+        public void cancel() {
+            cancelled = true;
+            if (lineSubscription.compareAndSet(this, null))
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        stopEditing();
+                    }
+                });
+        }
+        
+        
+        // leaves the edit mode entered for the subscriber, unless a reader or a new
+        // subscriber is now waiting for a line;  called on the event thread.  A reader
+        // sets waitingReader before entering edit mode under editTransition, so it
+        // cannot be left waiting outside edit mode.
+        private void stopEditing() {
+            synchronized (editTransition) {
+                if (waitingReader == null && lineSubscription.get() == null)
+                    exitEditMode();
+            }
+        }
+        
+        
+        // enters edit mode on the event thread, if the subscriber still wants a line
+        // which has not been entered
+        private void startEditing() {
+            EventQueue.invokeLater(new Runnable() {
+                public void run() {
+                    if (!cancelled && requested.get() > 0 && completedLines.isEmpty())
+                        enterEditMode();
+                }
+            });
+        }
+        
+        
+        void fail(Throwable error) {
+            this.error = error;
+            drain();
+        }
+        
+        
+        // delivers as many lines as are requested and available, entering edit mode if
+        // the subscriber wants more lines than have been entered;  edit mode is entered
+        // on the event thread, whichever thread calls drain
+        void drain() {
+            if (pending.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                if (!cancelled && error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                }
+                while (!cancelled && requested.get() > 0) {
+                    String line = completedLines.poll();
+                    if (line == null) {
+                        startEditing();
+                        break;
+                    }
+                    if (line == END_OF_INPUT) {
+                        cancel();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    requested.decrementAndGet();
+                    subscriber.onNext(line);
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
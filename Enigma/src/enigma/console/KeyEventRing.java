@@ -0,0 +1,102 @@
+package enigma.console;
+
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue of key events, filled by the event dispatch thread and
+ * emptied by any number of program threads.  Adding never blocks the event thread:
+ * when the ring is full, the oldest event is discarded to make room, so a program
+ * which polls only occasionally sees the most recent keys.
+ *
+ * <p>An event may be queued elsewhere as well, as the console queues typeahead for
+ * its line editor;  each event is therefore wrapped in an {@link Entry}, which
+ * whoever takes the event first claims, and <code>poll</code> skips events which have
+ * already been claimed.</p>
+ *
+ * <p>Only the event thread writes slots, so a slot can only be overwritten once the
+ * head has moved past it;  a reader therefore reads the slot at the head and then
+ * claims it with compare-and-set, and the read is valid if the claim succeeds.</p>
+ */
+class KeyEventRing {
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong head = new AtomicLong(); // next position to be taken
+    private final AtomicLong tail = new AtomicLong(); // next position to be added;  written only by the event thread
+
+
+    /**
+     * Creates a ring.
+     *
+     *@param capacity the number of events the ring holds;  rounded up to a power of two
+     */
+    KeyEventRing(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<Entry>(size);
+    }
+
+
+    /** Adds an event, discarding the oldest if the ring is full.  Called only by the event thread. */
+    void add(Entry entry) {
+        long position = tail.get();
+        while (position - head.get() > mask)
+            take(); // full:  make room by discarding the oldest event
+        slots.set((int) position & mask, entry);
+        tail.set(position + 1); // publishes the slot
+    }
+
+
+    /**
+     * Removes and returns the oldest event which has not been claimed elsewhere,
+     * claiming it, or returns <code>null</code> if there is none.
+     */
+    KeyEvent poll() {
+        Entry entry;
+        while ((entry = take()) != null) {
+            if (entry.claim())
+                return entry.event;
+        }
+        return null;
+    }
+
+
+    // removes and returns the oldest entry, or returns null if the ring is empty
+    private Entry take() {
+        for (;;) {
+            long position = head.get();
+            if (position == tail.get())
+                return null;
+            Entry result = slots.get((int) position & mask);
+            if (head.compareAndSet(position, position + 1))
+                return result;
+        }
+    }
+
+
+    /** A queued key event, which is delivered to whichever of its queues claims it first. */
+    static class Entry {
+        final KeyEvent event;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+
+        Entry(KeyEvent event) {
+            this.event = event;
+        }
+
+
+        /** Returns <code>true</code> if the caller is the first to claim the event. */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+
+        boolean isClaimed() {
+            return claimed.get();
+        }
+    }
+}
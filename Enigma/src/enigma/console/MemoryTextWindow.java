@@ -0,0 +1,337 @@
+package enigma.console;
+
+import java.awt.event.FocusListener;
+import java.awt.event.KeyListener;
+import java.util.Arrays;
+
+import enigma.core.Enigma;
+import enigma.event.TextMouseListener;
+import enigma.event.TextMouseMotionListener;
+import enigma.event.TextPasteListener;
+import enigma.event.TextWindowContentListener;
+import enigma.event.TextWindowListener;
+
+/**
+ * An off-screen <code>TextWindow</code> which keeps its characters in memory.  Unlike
+ * ordinary <code>TextWindows</code>, its contents may be read back with
+ * {@link #getChar} and {@link #getAttributes}, which makes it useful for capturing
+ * the output of a program, wrapped in a {@link DefaultConsoleImpl}, in order to
+ * post-process or selectively redisplay it.
+ *
+ * <p>A <code>MemoryTextWindow</code> has no scrollback:  rows which scroll off the top
+ * are discarded, so its memory use never grows.  Its size changes only when
+ * {@link #setSize} is called.  It produces no
+ * keyboard or mouse events, and listeners are accepted but never notified.</p>
+ *
+ *@status.experimental
+ *@see enigma.shells.commandline.commands.Watch
+ */
+public class MemoryTextWindow implements TextWindow {
+    private int columns;
+    private int rows;
+    private final TextAttributes defaultAttributes;
+
+    private char[][] chars;                // [rows][columns]
+    private TextAttributes[][] attributes; // [rows][columns]
+
+    private String title;
+    private int cursorX;
+    private int cursorY;
+    private int cursorType = CURSOR_INSERT;
+    private int scrollTop = -1;
+    private int scrollBottom = -1;
+    private boolean alternateScreen;
+
+
+    /**
+     * Creates a blank <code>MemoryTextWindow</code> of the specified size.
+     *
+     *@param columns the width of the window
+     *@param rows the height of the window
+     *@throws IllegalArgumentException if either dimension is not positive
+     */
+    public MemoryTextWindow(int columns, int rows) {
+        defaultAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
+        setSize(columns, rows);
+    }
+
+
+    /**
+     * Changes the size of the window.  The window is cleared, and any scroll region
+     * is removed.  Consoles wrapping the window read its size as they need it, so
+     * they follow the change without being recreated.
+     *
+     *@param columns the new width of the window
+     *@param rows the new height of the window
+     *@throws IllegalArgumentException if either dimension is not positive
+     */
+    public synchronized void setSize(int columns, int rows) {
+        if (columns <= 0 || rows <= 0)
+            throw new IllegalArgumentException("invalid size: " + columns + "x" + rows);
+        this.columns = columns;
+        this.rows = rows;
+        chars = new char[rows][columns];
+        attributes = new TextAttributes[rows][columns];
+        clearScrollRegion();
+        clear();
+    }
+
+
+    /** Returns the character in the specified cell. */
+    public synchronized char getChar(int x, int y) {
+        return chars[y][x];
+    }
+
+
+    /** Returns the <code>TextAttributes</code> of the specified cell. */
+    public synchronized TextAttributes getAttributes(int x, int y) {
+        return attributes[y][x];
+    }
+
+
+    /** Blanks every cell and moves the cursor to the top left corner. */
+    public synchronized void clear() {
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(chars[i], ' ');
+            Arrays.fill(attributes[i], defaultAttributes);
+        }
+        cursorX = 0;
+        cursorY = 0;
+    }
+
+
+    public synchronized String getTitle() {
+        return title;
+    }
+
+
+    public synchronized void setTitle(String title) {
+        this.title = title;
+    }
+
+
+    public synchronized int getRows() {
+        return rows;
+    }
+
+
+    public synchronized int getColumns() {
+        return columns;
+    }
+
+
+    public synchronized int getCursorX() {
+        return cursorX;
+    }
+
+
+    public synchronized int getCursorY() {
+        return cursorY;
+    }
+
+
+    public synchronized void setCursorPosition(int x, int y) {
+        cursorX = x;
+        cursorY = y;
+    }
+
+
+    public synchronized int getCursorType() {
+        return cursorType;
+    }
+
+
+    public synchronized void setCursorType(int type) {
+        cursorType = type;
+    }
+
+
+    public void addTextWindowListener(TextWindowListener l) { }
+
+
+    public void removeTextWindowListener(TextWindowListener l) { }
+
+
+    public void addKeyListener(KeyListener l) { }
+
+
+    public void removeKeyListener(KeyListener l) { }
+
+
+    public void addFocusListener(FocusListener l) { }
+
+
+    public void removeFocusListener(FocusListener l) { }
+
+
+    public void addTextMouseListener(TextMouseListener l) { }
+
+
+    public void removeTextMouseListener(TextMouseListener l) { }
+
+
+    public void addTextMouseMotionListener(TextMouseMotionListener l) { }
+
+
+    public void removeTextMouseMotionListener(TextMouseMotionListener l) { }
+    
+    
+    public void addTextPasteListener(TextPasteListener l) { }
+    
+    
+    public void removeTextPasteListener(TextPasteListener l) { }
+
+
+    public void addTextWindowContentListener(TextWindowContentListener l) { }
+
+
+    public void removeTextWindowContentListener(TextWindowContentListener l) { }
+
+
+    public synchronized void output(char c) {
+        output(c, defaultAttributes);
+    }
+
+
+    public synchronized void output(char c, TextAttributes attributes) {
+        if (attributes == null)
+            throw new NullPointerException("attributes may not be null");
+        if (c == '\t') {
+            for (int i = 0; i < 4; i++)
+                output(' ', attributes);
+        }
+        else if (c == '\n') {
+            cursorX = 0;
+            lineFeed();
+        }
+        else if (c != '\r') {
+            chars[cursorY][cursorX] = c;
+            this.attributes[cursorY][cursorX] = attributes;
+            if (++cursorX >= columns) {
+                cursorX = 0;
+                lineFeed();
+            }
+        }
+    }
+
+
+    public synchronized void output(int x, int y, char c) {
+        output(x, y, c, defaultAttributes);
+    }
+
+
+    public synchronized void output(int x, int y, char c, TextAttributes attributes) {
+        if (attributes == null)
+            throw new NullPointerException("attributes may not be null");
+        chars[y][x] = c;
+        this.attributes[y][x] = attributes;
+    }
+
+
+    public synchronized void output(char[] c, int offset, int count) {
+        output(c, offset, count, defaultAttributes);
+    }
+
+
+    public synchronized void output(char[] c, int offset, int count, TextAttributes attributes) {
+        if (count < 0)
+            throw new IllegalArgumentException("count must be non-negative: " + count);
+        for (int i = 0; i < count; i++)
+            output(c[offset + i], attributes);
+    }
+
+
+    public synchronized void output(String s) {
+        output(s, defaultAttributes);
+    }
+
+
+    public synchronized void output(String s, TextAttributes attributes) {
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+            output(s.charAt(i), attributes);
+    }
+
+
+    public synchronized void outputImmediately(char c, TextAttributes attributes) {
+        output(c, attributes);
+    }
+
+
+    public synchronized void insertRow(int row) {
+        scroll(0, row);
+    }
+
+
+    public synchronized void setScrollRegion(int top, int bottom) {
+        if (top < 0 || bottom >= rows || top >= bottom)
+            throw new IllegalArgumentException("invalid scroll region: " + top + " - " + bottom);
+        if (top == 0 && bottom == rows - 1)
+            clearScrollRegion();
+        else {
+            scrollTop = top;
+            scrollBottom = bottom;
+        }
+    }
+
+
+    public synchronized void clearScrollRegion() {
+        scrollTop = -1;
+        scrollBottom = -1;
+    }
+
+
+    /**
+     * Records the alternate screen state.  A <code>MemoryTextWindow</code> has only one
+     * grid, which is cleared on each switch.
+     */
+    public synchronized void setAlternateScreen(boolean alternate) {
+        if (alternate != alternateScreen) {
+            alternateScreen = alternate;
+            clear();
+        }
+    }
+
+
+    public synchronized boolean isAlternateScreen() {
+        return alternateScreen;
+    }
+
+
+    public void pageUp() { }
+
+
+    public void pageDown() { }
+
+
+    // moves the cursor down one row, as Java2DTextWindow does:  at the bottom margin of
+    // a scroll region only the region scrolls, and below the region the cursor sticks
+    // to the last row
+    private void lineFeed() {
+        if (scrollTop != -1) {
+            if (cursorY == scrollBottom) {
+                scroll(scrollTop, scrollBottom);
+                return;
+            }
+            if (cursorY == rows - 1)
+                return;
+        }
+        if (cursorY == rows - 1)
+            scroll(0, rows - 1);
+        else
+            cursorY++;
+    }
+
+
+    // moves rows top + 1 through bottom up by one, blanking row bottom
+    private void scroll(int top, int bottom) {
+        char[] spareChars = chars[top];
+        TextAttributes[] spareAttributes = attributes[top];
+        System.arraycopy(chars, top + 1, chars, top, bottom - top);
+        System.arraycopy(attributes, top + 1, attributes, top, bottom - top);
+        Arrays.fill(spareChars, ' ');
+        Arrays.fill(spareAttributes, defaultAttributes);
+        chars[bottom] = spareChars;
+        attributes[bottom] = spareAttributes;
+    }
+}
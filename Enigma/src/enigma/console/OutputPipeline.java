@@ -0,0 +1,476 @@
+package enigma.console;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carries a console's output from the threads which write it to the
+ * <code>TextWindow</code> asynchronously.  Each writing thread assembles its output
+ * in a line buffer of its own, and only complete lines are published, so lines written
+ * by different threads never interleave.  Published lines pass through a bounded,
+ * lock-free ring which any number of threads may add to, and a single consumer thread
+ * takes them out and applies them to the window in batches, coalescing consecutive
+ * runs with the same attributes into single bulk writes.  Writing threads therefore
+ * never contend for the window's lock.
+ *
+ * <p>When the ring is full, the overflow policy decides what happens to a new line:
+ * the writer waits for room ({@link DefaultConsoleImpl#OVERFLOW_BLOCK}), the oldest
+ * queued line is discarded ({@link DefaultConsoleImpl#OVERFLOW_DROP_OLDEST}), or the
+ * line is appended to an unbounded spill queue which the consumer empties after the
+ * ring ({@link DefaultConsoleImpl#OVERFLOW_SPILL}).</p>
+ *
+ * <p>Writers call <code>write</code> and <code>flush</code> without holding the
+ * {@link ConsoleWriter}'s lock, between calls to <code>enter</code> and
+ * <code>exit</code>, so a writer waiting for room never holds up the flush timer or
+ * a change of attributes;  <code>close</code> waits until they have all left.</p>
+ *
+ * <p>The ring is the bounded queue of Dmitry Vyukov:  each slot carries a sequence
+ * number, which tells a thread claiming a position with compare-and-set whether the
+ * slot is free to be written or ready to be read.</p>
+ */
+class OutputPipeline implements Runnable {
+    /** Maximum number of characters published as one line;  longer lines are split. */
+    private static final int MAX_LINE = 8192;
+
+    /** Maximum number of lines applied to the window by one batch. */
+    private static final int BATCH_LINES = 256;
+
+    /**
+     * Number of consecutive calls to publishPartials which must find a partial line
+     * unchanged before it is published.
+     */
+    private static final int IDLE_CHECKS = 5;
+
+    /** Nanoseconds a blocked writer or a flush waits before checking the ring again. */
+    private static final long WAIT_NANOS = 100000;
+
+    private final TextWindow window;
+    private final int overflowPolicy;
+
+    // the ring:  slot i holds the line at position p when p % capacity == i
+    private final int mask;
+    private final AtomicReferenceArray<Line> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(); // next position to be published
+    private final AtomicLong head = new AtomicLong(); // next position to be taken
+
+    /** Lines which did not fit into the ring, under the spill policy. */
+    private final Queue<Line> spill = new ConcurrentLinkedQueue<Line>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong(); // includes discarded lines
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of threads between enter and exit. */
+    private final AtomicInteger writers = new AtomicInteger();
+
+    /** Line buffers holding partial lines, for publishPartials;  may contain duplicates and empty buffers. */
+    private final Queue<LineBuffer> partials = new ConcurrentLinkedQueue<LineBuffer>();
+
+    private final ThreadLocal<LineBuffer> lineBuffers = new ThreadLocal<LineBuffer>() {
+        protected LineBuffer initialValue() {
+            return new LineBuffer();
+        }
+    };
+
+    private final Thread consumer;
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+
+    // the consumer's batch buffer
+    private final char[] batch = new char[MAX_LINE];
+    private int batchLength;
+    private TextAttributes batchAttributes;
+
+
+    /**
+     * Creates a pipeline and starts its consumer thread.
+     *
+     *@param capacity the number of lines the ring holds;  rounded up to a power of two
+     */
+    OutputPipeline(TextWindow window, int capacity, int overflowPolicy) {
+        this.window = window;
+        this.overflowPolicy = overflowPolicy;
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<Line>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        consumer = new Thread(this, "Console output");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+
+    /** Called, with the writer's lock held, before calling write or flush without it. */
+    void enter() {
+        writers.incrementAndGet();
+    }
+
+
+    /** Called once the write or flush following enter has returned. */
+    void exit() {
+        writers.decrementAndGet();
+    }
+
+
+    /**
+     * Appends characters to the calling thread's line, publishing each line as it is
+     * completed.
+     *
+     *@return <code>true</code> if a partial line remains, and should be published by {@link #publishPartials} if nothing follows it
+     */
+    boolean write(char[] c, int offset, int length, TextAttributes attributes) {
+        LineBuffer line = lineBuffers.get();
+        synchronized (line) {
+            line.writes++;
+            for (int i = 0; i < length; i++) {
+                char ch = c[offset + i];
+                line.append(ch, attributes);
+                if (ch == '\n' || line.length == MAX_LINE)
+                    publish(line.take());
+            }
+            return line.register();
+        }
+    }
+
+
+    /** As {@link #write(char[], int, int, TextAttributes)}, but for a string. */
+    boolean write(String s, int offset, int length, TextAttributes attributes) {
+        LineBuffer line = lineBuffers.get();
+        synchronized (line) {
+            line.writes++;
+            for (int i = 0; i < length; i++) {
+                char ch = s.charAt(offset + i);
+                line.append(ch, attributes);
+                if (ch == '\n' || line.length == MAX_LINE)
+                    publish(line.take());
+            }
+            return line.register();
+        }
+    }
+
+
+    /**
+     * Publishes the calling thread's partial line and waits until everything published
+     * so far, by any thread, has reached the window.
+     */
+    void flush() {
+        LineBuffer line = lineBuffers.get();
+        synchronized (line) {
+            if (line.length > 0)
+                publish(line.take());
+        }
+        long target = published.get();
+        while (applied.get() < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+    }
+
+
+    /**
+     * Publishes the partial lines of threads which have not written anything during the
+     * last <code>IDLE_CHECKS</code> calls, so that output without a newline, such as a
+     * progress message, still appears.  Lines which are still being written are left
+     * alone, so that they are not split, as are all lines while writers are waiting for
+     * room in the ring;  a line is only split if its thread stalls in the middle of it
+     * for longer than the idle period.  Never waits for room in the ring, as it runs on
+     * the flush timer shared by all consoles.
+     *
+     *@return <code>true</code> if partial lines remain, and this method should be called again later
+     */
+    boolean publishPartials() {
+        if (overflowPolicy == DefaultConsoleImpl.OVERFLOW_BLOCK && tail.get() - head.get() > mask)
+            return !partials.isEmpty();
+        int count = partials.size();
+        for (int i = 0; i < count; i++) {
+            LineBuffer line = partials.poll();
+            if (line == null)
+                break;
+            synchronized (line) {
+                if (line.writes != line.checkedWrites) {
+                    line.checkedWrites = line.writes;
+                    line.idleChecks = 0;
+                }
+                if (line.length > 0 && ++line.idleChecks < IDLE_CHECKS) {
+                    partials.add(line); // check again next time
+                    continue;
+                }
+                if (line.length > 0 && !publishWithoutWaiting(line)) {
+                    partials.add(line); // the ring filled up;  try again next time
+                    break;
+                }
+                line.registered = false;
+            }
+        }
+        return !partials.isEmpty();
+    }
+
+
+    /**
+     * Waits for writers to leave, publishes all partial lines, waits until they have
+     * reached the window, and stops the consumer.  Called with the writer's lock held,
+     * so no writer can enter meanwhile.
+     */
+    void close() {
+        while (writers.get() > 0) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        LineBuffer line;
+        while ((line = partials.poll()) != null) {
+            synchronized (line) {
+                line.registered = false;
+                if (line.length > 0)
+                    publish(line.take());
+            }
+        }
+        flush();
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+
+    /** Returns the number of lines discarded under the drop-oldest policy. */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+
+    private void publish(Line line) {
+        published.incrementAndGet();
+        if (overflowPolicy == DefaultConsoleImpl.OVERFLOW_SPILL && !spill.isEmpty())
+            spill.add(line); // keep the thread's lines in order behind its spilled ones
+        else {
+            while (!offer(line)) {
+                if (overflowPolicy == DefaultConsoleImpl.OVERFLOW_SPILL) {
+                    spill.add(line);
+                    break;
+                }
+                else if (overflowPolicy == DefaultConsoleImpl.OVERFLOW_DROP_OLDEST) {
+                    if (poll() != null) {
+                        dropped.incrementAndGet();
+                        applied.incrementAndGet();
+                    }
+                }
+                else {
+                    LockSupport.unpark(consumer);
+                    LockSupport.parkNanos(WAIT_NANOS);
+                }
+            }
+        }
+        if (consumerParked)
+            LockSupport.unpark(consumer);
+    }
+
+
+    // publishes a thread's buffered line, unless the policy is to block and the ring is
+    // full, in which case the line is left in the buffer and false is returned
+    private boolean publishWithoutWaiting(LineBuffer buffer) {
+        if (overflowPolicy != DefaultConsoleImpl.OVERFLOW_BLOCK) {
+            publish(buffer.take());
+            return true;
+        }
+        published.incrementAndGet();
+        if (!offer(buffer.toLine())) {
+            published.decrementAndGet();
+            return false;
+        }
+        buffer.clear();
+        if (consumerParked)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+
+    // adds a line to the ring, returning false if it is full
+    private boolean offer(Line item) {
+        for (;;) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) { // slot is free
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, item);
+                    sequences.set(index, position + 1); // ready to read
+                    return true;
+                }
+            }
+            else if (difference < 0)
+                return false; // the slot still holds the line from one lap ago
+        }
+    }
+
+
+    // removes the oldest line from the ring, returning null if it is empty
+    private Line poll() {
+        for (;;) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) { // slot is ready to read
+                if (head.compareAndSet(position, position + 1)) {
+                    Line item = slots.get(index);
+                    slots.set(index, null);
+                    sequences.set(index, position + mask + 1); // free for the next lap
+                    return item;
+                }
+            }
+            else if (difference < 0)
+                return null;
+        }
+    }
+
+
+    private Line take() {
+        Line item = poll();
+        return item != null ? item : spill.poll();
+    }
+
+
+    // the consumer:  applies lines to the window in batches, parking while there are none
+    public void run() {
+        for (;;) {
+            Line item = take();
+            if (item == null) {
+                if (closed)
+                    return;
+                consumerParked = true;
+                if (head.get() == tail.get() && spill.isEmpty() && !closed)
+                    LockSupport.park(this);
+                consumerParked = false;
+                continue;
+            }
+            int count = 0;
+            do {
+                apply(item);
+                count++;
+            } while (count < BATCH_LINES && (item = take()) != null);
+            flushBatch();
+            applied.addAndGet(count);
+        }
+    }
+
+
+    private void apply(Line line) {
+        for (int i = 0; i < line.runCount; i++) {
+            int start = line.runStarts[i];
+            int end = i + 1 < line.runCount ? line.runStarts[i + 1] : line.chars.length;
+            TextAttributes attributes = line.runAttributes[i];
+            if (attributes != batchAttributes || batchLength + end - start > batch.length) {
+                flushBatch();
+                batchAttributes = attributes;
+            }
+            System.arraycopy(line.chars, start, batch, batchLength, end - start);
+            batchLength += end - start;
+        }
+    }
+
+
+    private void flushBatch() {
+        if (batchLength > 0) {
+            window.output(batch, 0, batchLength, batchAttributes);
+            batchLength = 0;
+        }
+    }
+
+
+    // a published line:  its characters, divided into runs of the same attributes
+    private static class Line {
+        final char[] chars;
+        final int[] runStarts;
+        final TextAttributes[] runAttributes;
+        final int runCount;
+
+
+        Line(char[] chars, int[] runStarts, TextAttributes[] runAttributes, int runCount) {
+            this.chars = chars;
+            this.runStarts = runStarts;
+            this.runAttributes = runAttributes;
+            this.runCount = runCount;
+        }
+    }
+
+
+    // the line a thread is assembling;  guarded by itself, so that publishPartials may take it
+    private class LineBuffer {
+        char[] chars = new char[128];
+        int length;
+        int[] runStarts = new int[4];
+        TextAttributes[] runAttributes = new TextAttributes[4];
+        int runCount;
+        boolean registered; // in partials
+        int writes;         // number of writes to the buffer, so that publishPartials can tell whether it is idle
+        int checkedWrites;  // value of writes seen by the last publishPartials
+        int idleChecks;     // number of consecutive publishPartials which found writes unchanged
+
+
+        void append(char c, TextAttributes attributes) {
+            if (runCount == 0 || runAttributes[runCount - 1] != attributes) {
+                if (runCount == runStarts.length) {
+                    int[] newStarts = new int[runCount * 2];
+                    TextAttributes[] newAttributes = new TextAttributes[runCount * 2];
+                    System.arraycopy(runStarts, 0, newStarts, 0, runCount);
+                    System.arraycopy(runAttributes, 0, newAttributes, 0, runCount);
+                    runStarts = newStarts;
+                    runAttributes = newAttributes;
+                }
+                runStarts[runCount] = length;
+                runAttributes[runCount++] = attributes;
+            }
+            if (length == chars.length) {
+                char[] newChars = new char[Math.min(MAX_LINE, length * 2)];
+                System.arraycopy(chars, 0, newChars, 0, length);
+                chars = newChars;
+            }
+            chars[length++] = c;
+        }
+
+
+        // returns the buffered line and empties the buffer
+        Line take() {
+            Line result = toLine();
+            clear();
+            return result;
+        }
+
+
+        // returns a copy of the buffered line
+        Line toLine() {
+            char[] lineChars = new char[length];
+            System.arraycopy(chars, 0, lineChars, 0, length);
+            int[] lineStarts = new int[runCount];
+            System.arraycopy(runStarts, 0, lineStarts, 0, runCount);
+            TextAttributes[] lineAttributes = new TextAttributes[runCount];
+            System.arraycopy(runAttributes, 0, lineAttributes, 0, runCount);
+            return new Line(lineChars, lineStarts, lineAttributes, runCount);
+        }
+
+
+        void clear() {
+            length = 0;
+            runCount = 0;
+        }
+
+
+        // makes sure that a partial line will be found by publishPartials;  returns true if there is one
+        boolean register() {
+            if (length == 0)
+                return false;
+            if (!registered) {
+                registered = true;
+                partials.add(this);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package enigma.console;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import enigma.util.Flow;
+
+/**
+ * A <code>Flow.Subscriber</code> which writes each chunk of text it receives to a
+ * <code>Writer</code>, typically a console's.  <code>onNext</code> only queues the
+ * chunk, so the publisher's thread never waits for the window;  the queued chunks are
+ * written and flushed by a small pool of threads shared by all subscribers, and demand
+ * is renewed only once they have been flushed, so a publisher can never get more than
+ * sixteen chunks ahead of the writer.  Consoles create them through
+ * {@link Console#createOutputSubscriber}.
+ *
+ *@status.experimental
+ */
+public class OutputSubscriber implements Flow.Subscriber<CharSequence>, Runnable {
+    /** Number of chunks requested at a time. */
+    private static final int BATCH = 16;
+
+    /** Writes the queued chunks of all subscribers;  created on first use. */
+    private static Executor executor;
+
+    private final Writer out;
+    private final Queue queue = new ConcurrentLinkedQueue();
+
+    /** Number of times the subscriber has been scheduled since run last caught up;  run is active while non-zero. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile Flow.Subscription subscription;
+    private volatile boolean done;
+
+
+    /**
+     * Creates a subscriber which writes to the specified writer.
+     *
+     *@param out the writer to which received chunks are written and flushed
+     */
+    public OutputSubscriber(Writer out) {
+        this.out = out;
+    }
+
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel(); // already subscribed
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(BATCH);
+    }
+
+
+    public void onNext(CharSequence item) {
+        if (item == null)
+            throw new NullPointerException();
+        queue.add(item);
+        schedule();
+    }
+
+
+    public void onError(Throwable throwable) {
+        done = true;
+        schedule();
+    }
+
+
+    public void onComplete() {
+        done = true;
+        schedule();
+    }
+
+
+    private void schedule() {
+        if (pending.getAndIncrement() == 0)
+            getExecutor().execute(this);
+    }
+
+
+    // writes everything queued, flushes it to the window, and then requests as many
+    // chunks as were written;  runs until no further chunks were queued meanwhile
+    public void run() {
+        int missed = 1;
+        do {
+            int count = 0;
+            CharSequence item;
+            try {
+                while ((item = (CharSequence) queue.poll()) != null) {
+                    out.append(item);
+                    count++;
+                }
+                out.flush();
+            }
+            catch (IOException e) {
+                done = true;
+                subscription.cancel();
+            }
+            if (count > 0 && !done)
+                subscription.request(count);
+            missed = pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+
+    private static synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "Console output subscriber");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -6,17 +6,75 @@ import java.awt.Color;
  * Attributes associated with a character in a <code>TextWindow</code>.  <code>TextAttributes</code>
  * are immutable, and the same instance may be shared by many characters.
  *
+ * <p><code>TextAttributes</code> should normally be obtained from {@link #getInstance(Color, Color)},
+ * which returns a shared instance for any given combination of colors.  Because visually
+ * identical attributes are then usually the same object, <code>TextWindows</code> can
+ * detect runs of identically-rendered characters with a simple reference comparison, and
+ * changing colors does not allocate.  Each distinct combination of colors and styles
+ * also has a small integer {@linkplain #getID ID} which may be used as a compact key
+ * for it.  Shared instances are kept for the life of the program, so code which may
+ * produce an unbounded number of distinct combinations, such as arbitrary 24-bit
+ * colors, should construct and cache its own instances instead.</p>
+ *
+ * <p>In addition to colors, <code>TextAttributes</code> carry a set of style flags
+ * ({@link #BOLD}, {@link #DIM}, {@link #UNDERLINE}, {@link #INVERSE} and
+ * {@link #STRIKETHROUGH}), packed into a single <code>int</code>.  The colors a
+ * character is actually drawn with, taking <code>INVERSE</code> and <code>DIM</code>
+ * into account, are computed once and returned by {@link #getDisplayForeground} and
+ * {@link #getDisplayBackground}.  Not every <code>TextWindow</code> supports every style.</p>
+ *
  *@status.stable
  *@author Ethan Royael Nicholas (<a href="mailto:ethan@ethannicholas.com">ethan@ethannicholas.com</a>)
  */
 public class TextAttributes {
-    private Color foreground;
-    private Color background;
+    /** Style flag indicating that characters are drawn in a bold font. */
+    public static final int BOLD          = 1;
+    
+    /** Style flag indicating that characters are drawn in a color halfway toward the background. */
+    public static final int DIM           = 2;
+    
+    /** Style flag indicating that characters are underlined. */
+    public static final int UNDERLINE     = 4;
+    
+    /** Style flag indicating that the foreground and background colors are swapped. */
+    public static final int INVERSE       = 8;
+    
+    /** Style flag indicating that characters are struck through. */
+    public static final int STRIKETHROUGH = 16;
+    
+    private static final int ALL_STYLES = BOLD | DIM | UNDERLINE | INVERSE | STRIKETHROUGH;
+    
+    
+    /** Initial number of slots in the palette;  must be a power of two. */
+    private static final int INITIAL_PALETTE_SIZE = 256;
+    
+    /** Guards the palette. */
+    private static final Object paletteLock = new Object();
+    
+    /** 
+     * The canonical instances, in an open-addressed hash table indexed by a hash of
+     * their contents.  Entries are never evicted, so each combination keeps its
+     * instance and ID;  the table doubles when it is half full.
+     */
+    private static TextAttributes[] palette = new TextAttributes[INITIAL_PALETTE_SIZE];
+    
+    /** Number of entries in the palette, and so the ID of the next one. */
+    private static int paletteCount;
+    
+    private final Color foreground;
+    private final Color background;
+    private final int style;
+    private final Color displayForeground;
+    private final Color displayBackground;
+    
+    /** The ID of the palette entry equal to this instance, or -1 if not yet known. */
+    private volatile int id = -1;
 
 
     /** 
      * Constructs a new <code>TextAttributes</code> with the specified foreground color
-     * and a black background.
+     * and a black background.  Consider using {@link #getInstance(Color)} instead,
+     * which returns a shared instance.
      *
      *@param foreground the foreground color
      *@throws NullPointerException if <code>foreground</code> is <code>null</code>
@@ -28,19 +86,155 @@ public class TextAttributes {
 
     /** 
      * Constructs a new <code>TextAttributes</code> with the specified foreground and 
-     * background colors.
+     * background colors.  Consider using {@link #getInstance(Color, Color)} instead,
+     * which returns a shared instance.
      *
      *@param foreground the foreground color
      *@param background the background color
      *@throws NullPointerException if either <code>foreground</code> or <code>background</code> are <code>null</code>
      */
     public TextAttributes(Color foreground, Color background) {
+        this(foreground, background, 0);
+    }
+        
+
+    /** 
+     * Constructs a new <code>TextAttributes</code> with the specified foreground and 
+     * background colors and style flags.  Consider using 
+     * {@link #getInstance(Color, Color, int)} instead, which returns a shared instance.
+     *
+     *@param foreground the foreground color
+     *@param background the background color
+     *@param style a combination of the style flags, such as <code>BOLD | UNDERLINE</code>
+     *@throws NullPointerException if either <code>foreground</code> or <code>background</code> are <code>null</code>
+     *@throws IllegalArgumentException if <code>style</code> contains unknown flags
+     */
+    public TextAttributes(Color foreground, Color background, int style) {
         if (foreground == null)
             throw new NullPointerException("foreground must be non-null");
         if (background == null)
             throw new NullPointerException("background must be non-null");
+        if ((style & ~ALL_STYLES) != 0)
+            throw new IllegalArgumentException("unknown style flags: " + Integer.toHexString(style));
         this.foreground = foreground;
         this.background = background;
+        this.style = style;
+        
+        Color fg = foreground;
+        Color bg = background;
+        if ((style & INVERSE) != 0) {
+            fg = background;
+            bg = foreground;
+        }
+        if ((style & DIM) != 0)
+            fg = new Color((fg.getRed()   + bg.getRed())   / 2,
+                           (fg.getGreen() + bg.getGreen()) / 2,
+                           (fg.getBlue()  + bg.getBlue())  / 2);
+        displayForeground = fg;
+        displayBackground = bg;
+    }
+    
+    
+    /** 
+     * Returns a shared <code>TextAttributes</code> with the specified foreground color
+     * and a black background.
+     *
+     *@param foreground the foreground color
+     *@throws NullPointerException if <code>foreground</code> is <code>null</code>
+     *@see #getInstance(Color, Color)
+     */
+    public static TextAttributes getInstance(Color foreground) {
+        return getInstance(foreground, Color.BLACK);
+    }
+    
+    
+    /** 
+     * Returns a shared <code>TextAttributes</code> with the specified foreground and
+     * background colors.  Repeated calls with equal colors return the same instance,
+     * without allocating.  <code>TextAttributes</code> created with a constructor are
+     * separate instances, so callers which may be given those should compare
+     * attributes with {@link #equals}.
+     *
+     *@param foreground the foreground color
+     *@param background the background color
+     *@throws NullPointerException if either <code>foreground</code> or <code>background</code> are <code>null</code>
+     */
+    public static TextAttributes getInstance(Color foreground, Color background) {
+        return getInstance(foreground, background, 0);
+    }
+    
+    
+    /** 
+     * Returns a shared <code>TextAttributes</code> with the specified foreground and
+     * background colors and style flags.
+     *
+     *@param foreground the foreground color
+     *@param background the background color
+     *@param style a combination of the style flags, such as <code>BOLD | UNDERLINE</code>
+     *@throws NullPointerException if either <code>foreground</code> or <code>background</code> are <code>null</code>
+     *@throws IllegalArgumentException if <code>style</code> contains unknown flags
+     *@see #getInstance(Color, Color)
+     */
+    public static TextAttributes getInstance(Color foreground, Color background, int style) {
+        if (foreground == null)
+            throw new NullPointerException("foreground must be non-null");
+        if (background == null)
+            throw new NullPointerException("background must be non-null");
+        synchronized (paletteLock) {
+            int slot = findSlot(foreground.getRGB(), background.getRGB(), style);
+            TextAttributes result = palette[slot];
+            if (result == null)
+                result = addToPalette(new TextAttributes(foreground, background, style), slot);
+            return result;
+        }
+    }
+    
+    
+    // returns the palette entry equal to attributes, adding attributes if there is none
+    private static TextAttributes intern(TextAttributes attributes) {
+        synchronized (paletteLock) {
+            int slot = findSlot(attributes.foreground.getRGB(), attributes.background.getRGB(), attributes.style);
+            TextAttributes result = palette[slot];
+            if (result == null)
+                result = addToPalette(attributes, slot);
+            return result;
+        }
+    }
+    
+    
+    // returns the slot holding the specified attributes, or the empty slot where they belong
+    private static int findSlot(int foreground, int background, int style) {
+        int mask = palette.length - 1;
+        int slot = hash(foreground, background, style) & mask;
+        TextAttributes entry;
+        while ((entry = palette[slot]) != null) {
+            if (entry.foreground.getRGB() == foreground && entry.background.getRGB() == background && entry.style == style)
+                break;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    
+    // stores attributes in an empty slot returned by findSlot and assigns its ID
+    private static TextAttributes addToPalette(TextAttributes attributes, int slot) {
+        attributes.id = paletteCount++;
+        palette[slot] = attributes;
+        if (paletteCount * 2 > palette.length) {
+            TextAttributes[] old = palette;
+            palette = new TextAttributes[old.length * 2];
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] != null)
+                    palette[findSlot(old[i].foreground.getRGB(), old[i].background.getRGB(), old[i].style)] = old[i];
+            }
+        }
+        return attributes;
+    }
+    
+    
+    private static int hash(int foreground, int background, int style) {
+        int h = (foreground * 31 + background) * 31 + style;
+        return h ^ (h >>> 16);
     }
     
     
@@ -64,12 +258,105 @@ public class TextAttributes {
     }
     
     
+    /** 
+     * Returns the style flags of this <code>TextAttributes</code>.
+     *
+     *@return a combination of {@link #BOLD}, {@link #DIM}, {@link #UNDERLINE}, {@link #INVERSE} and {@link #STRIKETHROUGH}
+     */
+    public int getStyle() {
+        return style;
+    }
+    
+    
+    /** 
+     * Returns <code>true</code> if all of the specified style flags are set.
+     *
+     *@param flags the style flags to test
+     */
+    public boolean hasStyle(int flags) {
+        return (style & flags) == flags;
+    }
+    
+    
+    /** 
+     * Returns the color in which characters should actually be drawn:  the foreground
+     * color, or the background color if <code>INVERSE</code> is set, dimmed if
+     * <code>DIM</code> is set.
+     */
+    public Color getDisplayForeground() {
+        return displayForeground;
+    }
+    
+    
+    /** 
+     * Returns the color with which the cells behind characters should actually be filled:
+     * the background color, or the foreground color if <code>INVERSE</code> is set.
+     */
+    public Color getDisplayBackground() {
+        return displayBackground;
+    }
+    
+    
+    /** 
+     * Returns a shared <code>TextAttributes</code> with the same colors as this one
+     * and the specified style flags.
+     *
+     *@param style a combination of the style flags
+     *@throws IllegalArgumentException if <code>style</code> contains unknown flags
+     */
+    public TextAttributes deriveStyle(int style) {
+        if (style == this.style)
+            return this;
+        return getInstance(foreground, background, style);
+    }
+    
+    
+    /** 
+     * Returns this object's ID, a small non-negative integer which identifies its
+     * combination of colors and styles:  <code>TextAttributes</code> have the same ID
+     * if and only if they are {@linkplain #equals equal}.  IDs are assigned in the
+     * order combinations are first seen, starting from zero, and never change.
+     *
+     *@return this object's ID
+     */
+    public int getID() {
+        int result = id;
+        if (result < 0) {
+            result = intern(this).id;
+            id = result;
+        }
+        return result;
+    }
+    
+    
+    /** 
+     * Returns <code>true</code> if <code>obj</code> is a <code>TextAttributes</code>
+     * which renders identically to this one.
+     */
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof TextAttributes))
+            return false;
+        TextAttributes a = (TextAttributes) obj;
+        return foreground.getRGB() == a.foreground.getRGB() && background.getRGB() == a.background.getRGB() &&
+               style == a.style;
+    }
+    
+    
+    public int hashCode() {
+        return hash(foreground.getRGB(), background.getRGB(), style);
+    }
+    
+    
     /** 
      * Converts this object to a <code>String</code> representation.
      *
      *@return a <code>String</code> representing this object
      */
     public String toString() {
-        return "TextAttributes(" + getForeground() + ", " + getBackground() + ")";
+        if (style == 0)
+            return "TextAttributes(" + getForeground() + ", " + getBackground() + ")";
+        return "TextAttributes(" + getForeground() + ", " + getBackground() + ", style=" + style + ")";
     }
 }
@@ -153,6 +153,30 @@ public interface TextWindow {
     void removeKeyListener(KeyListener l);
 
     
+    /** 
+     * Adds a listener which is notified when the window gains or loses the keyboard
+     * focus.  While the window does not have the focus it receives no key events, so
+     * in particular a key released meanwhile is never reported.
+     * <code>TextWindows</code> without a notion of focus will allow focus listeners to
+     * be added and removed without error, but will simply never notify the listeners
+     * of any events.
+     *
+     *@param l the listener to add
+     *@see #removeFocusListener
+     */
+    void addFocusListener(FocusListener l);
+    
+
+    /** 
+     * Removes a focus listener.  It is not an error to attempt to
+     * remove a listener which is not currently registered.
+     *
+     *@param l the listener to remove
+     *@see #addFocusListener
+     */
+    void removeFocusListener(FocusListener l);
+
+    
     /** 
      * Adds a listener for mouse events.  Not all <code>TextWindow</code> implementations
      * will necessarily offer mouse support.  <code>TextWindows</code> without mouse
@@ -203,6 +227,49 @@ public interface TextWindow {
     void removeTextMouseMotionListener(TextMouseMotionListener l);
 
     
+    /** 
+     * Adds a listener for text pasted into the window.  <code>TextWindows</code>
+     * without clipboard support will allow paste listeners to be added and removed
+     * without error, but will simply never notify the listeners of any events.
+     *
+     *@param l the listener to add
+     *@see #removeTextPasteListener
+     */
+    void addTextPasteListener(TextPasteListener l);
+    
+
+    /** 
+     * Removes a paste listener.  It is not an error to attempt to
+     * remove a listener which is not currently registered.
+     *
+     *@param l the listener to remove
+     *@see #addTextPasteListener
+     */
+    void removeTextPasteListener(TextPasteListener l);
+
+    
+    /** 
+     * Adds a listener for changes to the window's contents.  Changes are reported
+     * in batches rather than per character.  <code>TextWindows</code> which do not
+     * report content changes will allow content listeners to be added and removed
+     * without error, but will simply never notify the listeners of any events.
+     *
+     *@param l the listener to add
+     *@see #removeTextWindowContentListener
+     */
+    void addTextWindowContentListener(TextWindowContentListener l);
+    
+
+    /** 
+     * Removes a content listener.  It is not an error to attempt to
+     * remove a listener which is not currently registered.
+     *
+     *@param l the listener to remove
+     *@see #addTextWindowContentListener
+     */
+    void removeTextWindowContentListener(TextWindowContentListener l);
+
+    
     /** 
      * <p>Outputs the specified character at the current cursor position, 
      * using the default attributes.  The cursor automatically advances to 
@@ -240,7 +307,8 @@ public interface TextWindow {
     /** 
      * As {@link #output(char)}, but outputs the character at the specified
      * position and does not affect the cursor's position or cause the TextWindow
-     * to scroll.
+     * to scroll.  Positions are screen positions, as in {@link #setCursorPosition}:
+     * row zero is the top row of the screen, not of any scrollback above it.
      *
      *@param x the column in which to output the character
      *@param y the row in which to output the character
@@ -251,7 +319,7 @@ public interface TextWindow {
 
     /** 
      * As {@link #output(int, int, char)}, but uses the specified attributes
-     * rather than the default.
+     * rather than the default.  Positions are screen positions.
      *
      *@param x the column in which to output the character
      *@param y the row in which to output the character
@@ -333,6 +401,49 @@ public interface TextWindow {
     void insertRow(int row);
     
     
+    /** 
+     * Restricts scrolling to the rows between <code>top</code> and <code>bottom</code>,
+     * inclusive.  When the cursor advances past the bottom margin, only the rows inside
+     * the region scroll; rows above and below the region, such as a header or a status
+     * line, are left untouched.  A region which covers the entire window is equivalent
+     * to having no region at all.
+     *
+     *@param top the first row of the scroll region
+     *@param bottom the last row of the scroll region
+     *@throws IllegalArgumentException if the region is empty or does not fit inside the window
+     *@see #clearScrollRegion
+     */
+    void setScrollRegion(int top, int bottom);
+    
+    
+    /** 
+     * Removes the scroll region set by {@link #setScrollRegion}, so that the entire
+     * window scrolls once again.
+     */
+    void clearScrollRegion();
+    
+    
+    /** 
+     * Switches between the primary screen and an alternate screen.  The alternate
+     * screen is a blank, window-sized grid without scrollback, intended for full-screen
+     * programs such as pagers and editors.  Returning to the primary screen restores
+     * its contents, scrollback and cursor position exactly as they were left.
+     * <code>TextWindows</code> without alternate screen support ignore this call.
+     *
+     *@param alternate <code>true</code> to display the alternate screen, <code>false</code> to return to the primary screen
+     *@see #isAlternateScreen
+     */
+    void setAlternateScreen(boolean alternate);
+    
+    
+    /** 
+     * Returns <code>true</code> if the alternate screen is currently displayed.
+     *
+     *@see #setAlternateScreen
+     */
+    boolean isAlternateScreen();
+    
+    
     /** 
      * Scrolls the window up one page, if scrolling is supported and the window
      * is not already at the top of its scroll range.  Otherwise, this call is
@@ -1,6 +1,7 @@
 package enigma.console.java2d;
 
 import java.awt.*;
+import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.awt.font.*;
 import java.awt.geom.*;
@@ -8,7 +9,6 @@ import java.awt.image.*;
 import java.io.*;
 import java.util.*;
 import javax.swing.*;
-import javax.swing.Timer;
 import javax.swing.event.*;
 
 import enigma.console.*;
@@ -22,20 +22,37 @@ import enigma.event.*;
  * but only monospaced fonts will function properly.
  *
  * <p><code>Java2DTextWindow</code> provides built-in scrollback buffer support.
- * It must be placed in <code>JScrollPane</code> for this support to function.</p>
+ * It must be placed in <code>JScrollPane</code> for this support to function.
+ * The window normally follows its output to the bottom;  while
+ * {@linkplain #setScrollLock scroll lock} is on (toggled with the Scroll Lock key),
+ * it stays where the user has scrolled instead.</p>
+ *
+ * <p>Text may be selected by dragging with the left mouse button, or as a rectangle by
+ * dragging with Alt held down;  Shift-click extends the selection.  Ctrl+Shift+C or
+ * Ctrl+Insert copies the selection to the clipboard and Ctrl+Shift+A selects the
+ * entire scrollback.  The clipboard contents read the text from the window only when
+ * they are pasted, so copying any amount of scrollback is instantaneous.</p>
  *
  *@status.unstable
  *@see TextWindow
  *@author Ethan Royael Nicholas (<a href="mailto:ethan@ethannicholas.com">ethan@ethannicholas.com</a>)
  */
 public class Java2DTextWindow extends JComponent implements TextWindow, Scrollable {
-    private static final int REPAINT_DELAY = 15;
+    /**
+     * The attributes of blank cells, taken from the theme when the window is created;
+     * a later change to the theme applies to windows created after it.
+     */
+    private final TextAttributes defaultAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
+    
+    /** Maximum number of characters a bulk write outputs per acquisition of the window's lock. */
+    private static final int BULK_CHUNK = 256;
+    
+    /** Maximum number of milliseconds a bulk write waits for pending key handling before proceeding. */
+    private static final int PRIORITY_WAIT = 20;
+    
+    /** Milliseconds between blinks of the cursor. */
     private static final int CURSOR_BLINK_DELAY = 500;
 
-    private static TextAttributes defaultAttributes = Enigma.getSystemTextAttributes("attributes.console.default"); 
-
-    private static final Color DEFAULT_CURSOR_COLOR = invert(defaultAttributes.getBackground());
-
 
     /** Maximum number of rows which will ever be remembered. */
     private int scrollback;
@@ -55,54 +72,95 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     private int charWidth = 16;
     private int charHeight = 16;
     private int baseline = 9;
+    
+    // derived from the current font by setFont, so that styled runs do not allocate while painting
+    private Font boldFont;
+    private int underlineOffset;
+    private int underlineThickness;
+    private int strikethroughOffset;
+    private int strikethroughThickness;
 
     private char[][] chars;                // [rows][columns]
     private TextAttributes[][] attributes; // [rows][columns]
     
-    private int cursorType;
+    private volatile int cursorType;
     private boolean cursorState;
+    private volatile long cursorBlinkTime; // when the cursor last blinked or moved
     private Color cursorColor;
     private int cursorX = -1;
     private int cursorY = -1;
 
+    /** Top row of the scroll region in screen coordinates, or -1 if the whole window scrolls. */
+    private int scrollTop = -1;
+    
+    /** Bottom row (inclusive) of the scroll region in screen coordinates. */
+    private int scrollBottom = -1;
+
+    /** <code>true</code> while the alternate screen is displayed. */
+    private boolean alternateScreen;
+    
+    // the primary screen's row store and cursor, parked while the alternate screen is active
+    private char[][] primaryChars;
+    private TextAttributes[][] primaryAttributes;
+    private int primaryRows;
+    private int primaryColumns;
+    private int primaryCursorX;
+    private int primaryCursorY;
+    
+    // the alternate screen's row store, kept between uses so that switching does not allocate
+    private char[][] alternateChars;
+    private TextAttributes[][] alternateAttributes;
+
     private boolean valid;
     private boolean snapToBottom;
     private Rectangle dirtyRegion;
     
-    private Timer cursorTimer = new Timer(CURSOR_BLINK_DELAY, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                cursorState = !cursorState;
-                repaintChar(cursorX, cursorY);
-            }
-        });
-
-    private Timer repaintTimer = new Timer(REPAINT_DELAY, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                synchronized (Java2DTextWindow.this) {
-                    if (!valid || snapToBottom) {
-                        JScrollPane sp = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, Java2DTextWindow.this);
-                        if (!valid) {
-                            invalidate();
-                            if (sp != null)
-                                sp.validate();
-                        }
-                        if (snapToBottom = true) {
-                            if (sp != null) {
-                                JScrollBar v = sp.getVerticalScrollBar();
-                                v.setValue(v.getMaximum() - v.getVisibleAmount());
-                            }
-                            snapToBottom = false;
-                        }
-                    }
-                    if (dirtyRegion != null) {
-                        repaint(dirtyRegion.x * charWidth, dirtyRegion.y * charHeight, 
-                                dirtyRegion.width * charWidth, dirtyRegion.height * charHeight);
-                        dirtyRegion = null;
-                    }
-                }
-            }
-        });
-    { repaintTimer.setRepeats(false); }
+    /** Overlay layers, sorted by ascending z order. */
+    private volatile TextLayer[] layers = new TextLayer[0];
+    
+    // row buffers used while painting rows covered by layers
+    private char[] compositeChars;
+    private TextAttributes[] compositeAttributes;
+    
+    /** <code>true</code> if there are <code>TextWindowContentListeners</code> to notify of content changes. */
+    private boolean trackDamage;
+    
+    // per screen row span of cells changed since the last contentChanged event;
+    // damageStart is Integer.MAX_VALUE for unchanged rows
+    private int[] damageStart;
+    private int[] damageEnd;
+    private int damagedRowCount;
+    
+    /** <code>true</code> while the viewport is frozen so that the user can read back. */
+    private boolean scrollLock;
+    
+    /** Number of rows the full row store has rotated by since the locked viewport was last adjusted. */
+    private int lockedScrolls;
+    
+    /** Number of rows discarded from the top of the primary row store;  the absolute index of physical row 0. */
+    private long discardedRows;
+    
+    /** The selected text, or <code>null</code> if there is none;  replaced, not modified, as the selection changes. */
+    private volatile SelectionTransferable selection;
+    
+    // the fixed end of the selection being dragged, as an absolute row and a column boundary
+    private long selectionAnchorRow;
+    private int selectionAnchorColumn;
+    
+    /** <code>true</code> if the character typed by a consumed selection shortcut is to be discarded. */
+    private boolean swallowKeyTyped;
+    
+    /** Drives repainting and cursor blinking;  shared by the panes of a <code>Java2DTiledWindow</code>. */
+    private RenderClock clock;
+    
+    // while key events are being dispatched, priorityDepth is non-zero and priorityThread is
+    // the event dispatch thread.  Bulk writes from other threads hold off (for a bounded
+    // time) so that echo and cursor movement get the lock first, and the cells changed by
+    // key handling are painted as soon as it finishes rather than on the next clock tick.
+    private volatile int priorityDepth;
+    private volatile Thread priorityThread;
+    private final Object priorityLock = new Object();
+    private Rectangle priorityRegion;
 
 
     /** 
@@ -120,13 +178,21 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
      * is hidden and immutable.</p>
      */
     public Java2DTextWindow(int columns, int rows, int scrollback) {
+        this(columns, rows, scrollback, new RenderClock());
+    }
+    
+    
+    // creates a window driven by the specified clock, which may be shared with other windows
+    Java2DTextWindow(int columns, int rows, int scrollback, RenderClock clock) {
+        this.clock = clock;
+        clock.addWindow(this);
         setFont(new Font("Monospaced", 0, 12));
         setGridSize(columns, rows, columns);
         this.scrollback = scrollback;
         this.logicalRows = rows;
-        setCursorColor(DEFAULT_CURSOR_COLOR);
-        cursorTimer.start();
-        enableEvents(AWTEvent.MOUSE_EVENT_MASK);
+        setCursorColor(invert(defaultAttributes.getBackground()));
+        enableEvents(AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK);
+        setAutoscrolls(true); // keep dragging the selection while the mouse is outside the viewport
     }
     
     
@@ -147,14 +213,90 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     
     public void setFont(Font font) {
         FontRenderContext context = new FontRenderContext(null, false, false);
-        Rectangle2D bounds = font.getStringBounds("M", context);
-        charWidth  = (int) bounds.getWidth();
-        charHeight = (int) bounds.getHeight();
-        baseline   = (int) font.getLineMetrics("g", context).getAscent();
+        Dimension cellSize = getCellSize(font);
+        charWidth  = cellSize.width;
+        charHeight = cellSize.height;
+        LineMetrics metrics = font.getLineMetrics("g", context);
+        baseline   = (int) metrics.getAscent();
+        boldFont   = font.deriveFont(font.getStyle() | Font.BOLD);
+        underlineOffset        = Math.round(metrics.getUnderlineOffset());
+        underlineThickness     = Math.max(1, Math.round(metrics.getUnderlineThickness()));
+        strikethroughOffset    = Math.round(metrics.getStrikethroughOffset());
+        strikethroughThickness = Math.max(1, Math.round(metrics.getStrikethroughThickness()));
         super.setFont(font);
         revalidate();
     }
     
+    
+    // returns the size of a single character cell, in pixels, when rendering with the specified font
+    static Dimension getCellSize(Font font) {
+        FontRenderContext context = new FontRenderContext(null, false, false);
+        Rectangle2D bounds = font.getStringBounds("M", context);
+        return new Dimension((int) bounds.getWidth(), (int) bounds.getHeight());
+    }
+    
+    
+    // called by the clock;  toggles the cursor if it has not changed for CURSOR_BLINK_DELAY milliseconds
+    void blinkCursor(long now) {
+        if (now - cursorBlinkTime < CURSOR_BLINK_DELAY)
+            return;
+        cursorBlinkTime = now;
+        cursorState = !cursorState;
+        repaintCursorCell(cursorX, cursorY);
+    }
+    
+    
+    // restarts this window's blink cycle, so that a cursor which has just moved stays visible
+    private void restartCursor() {
+        cursorBlinkTime = System.currentTimeMillis();
+    }
+    
+    
+    // called by the clock, on the event dispatch thread, to turn accumulated damage into
+    // a repaint request and notify content listeners
+    void flushRepaint() {
+        TextWindowEvent contentEvent = null;
+        synchronized (this) {
+            if (!valid || (snapToBottom && !scrollLock) || lockedScrolls > 0) {
+                JScrollPane sp = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (!valid) {
+                    invalidate();
+                    if (sp != null)
+                        sp.validate();
+                }
+                if (scrollLock) {
+                    // the rows under the viewport moved up;  follow them, so that the
+                    // user keeps reading the same text
+                    if (lockedScrolls > 0 && sp != null) {
+                        JScrollBar v = sp.getVerticalScrollBar();
+                        v.setValue(Math.max(v.getMinimum(), v.getValue() - lockedScrolls * charHeight));
+                    }
+                    lockedScrolls = 0;
+                }
+                else if (snapToBottom) {
+                    if (sp != null) {
+                        JScrollBar v = sp.getVerticalScrollBar();
+                        v.setValue(v.getMaximum() - v.getVisibleAmount());
+                    }
+                    snapToBottom = false;
+                }
+            }
+            if (dirtyRegion != null) {
+                Rectangle r = new Rectangle(dirtyRegion.x * charWidth, dirtyRegion.y * charHeight, 
+                                            dirtyRegion.width * charWidth, dirtyRegion.height * charHeight);
+                if (scrollLock)
+                    r = r.intersection(getVisibleRect()); // output below the viewport is not painted
+                if (!r.isEmpty())
+                    repaint(r.x, r.y, r.width, r.height);
+                dirtyRegion = null;
+            }
+            if (trackDamage)
+                contentEvent = takeDamage();
+        }
+        if (contentEvent != null)
+            fireContentChanged(contentEvent);
+    }
+    
 
     private synchronized void setGridSize(int columns, int rows, int logicalColumns) {
         while (cursorY >= rows)
@@ -166,7 +308,7 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
             char[][] oldChars = chars;
             if (oldChars == null)
                 oldChars = new char[0][0];
-            chars = new char[rows][columns];
+            chars = new char[rows][]; // rows are shared with the old grid or created below
             System.arraycopy(oldChars, 0, chars, 0, minRows);
             for (int i = this.rows; i < rows; i++) {
                 char[] newRow = new char[columns];
@@ -177,7 +319,7 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
             TextAttributes[][] oldAttributes = attributes;
             if (oldAttributes == null)
                 oldAttributes = new TextAttributes[0][0];
-            attributes = new TextAttributes[rows][columns];
+            attributes = new TextAttributes[rows][];
             System.arraycopy(oldAttributes, 0, attributes, 0, minRows);
             for (int i = this.rows; i < rows; i++) {
                 TextAttributes[] newRow = new TextAttributes[columns];
@@ -265,12 +407,12 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     
     public synchronized void setCursorPosition(int cursorX, int cursorY) {
         cursorY += rows - logicalRows;
-        repaintChar(this.cursorX, this.cursorY);
+        repaintCursorCell(this.cursorX, this.cursorY);
         this.cursorX = cursorX;
         this.cursorY = cursorY;
         cursorState = true;
-        cursorTimer.restart();
-        repaintChar(cursorX, cursorY);
+        restartCursor();
+        repaintCursorCell(cursorX, cursorY);
     }
     
     
@@ -291,6 +433,25 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     
     public void setCursorType(int cursorType) {
         this.cursorType = cursorType;
+        clock.updateCursorTimer();
+    }
+    
+    
+    public void addNotify() {
+        super.addNotify();
+        clock.updateCursorTimer();
+    }
+    
+    
+    public void removeNotify() {
+        super.removeNotify();
+        clock.updateCursorTimer();
+    }
+    
+    
+    // true if the clock must blink this window's cursor:  it is visible, in a displayable window
+    boolean isCursorBlinking() {
+        return cursorType != CURSOR_INVISIBLE && isDisplayable();
     }
     
     
@@ -304,6 +465,21 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     }
     
     
+    public synchronized void addTextWindowContentListener(TextWindowContentListener l) {
+        listenerList.add(TextWindowContentListener.class, l);
+        if (!trackDamage) {
+            trackDamage = true;
+            damageStart = null; // start afresh, content changed before now is not reported
+        }
+    }
+
+
+    public synchronized void removeTextWindowContentListener(TextWindowContentListener l) {
+        listenerList.remove(TextWindowContentListener.class, l);
+        trackDamage = listenerList.getListenerCount(TextWindowContentListener.class) > 0;
+    }
+    
+    
     protected void fireResized() {
         TextWindowEvent e = new TextWindowEvent(this, TextWindowEvent.RESIZED);
         Object[] listeners = listenerList.getListenerList();
@@ -314,6 +490,17 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
             }
         }
      }
+    
+    
+    protected void fireContentChanged(TextWindowEvent e) {
+        Object[] listeners = listenerList.getListenerList();
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == TextWindowContentListener.class) {
+                TextWindowContentListener listener = ((TextWindowContentListener) listeners[i + 1]);
+                listener.contentChanged(e);
+            }
+        }
+     }
         
 
     public void addKeyListener(KeyListener l) {
@@ -327,12 +514,116 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     
     
     protected void processKeyEvent(KeyEvent e) {
-        fireKeyEvent(e);
-        if (e.getID() == KeyEvent.KEY_TYPED)
+        if (e.getID() == KeyEvent.KEY_PRESSED) {
+            swallowKeyTyped = false;
+            if (e.getKeyCode() == KeyEvent.VK_SCROLL_LOCK) {
+                setScrollLock(!isScrollLock());
+                e.consume();
+                return;
+            }
+            if (processClipboardKey(e)) {
+                e.consume();
+                return;
+            }
+        }
+        else if (e.getID() == KeyEvent.KEY_TYPED && swallowKeyTyped) {
+            swallowKeyTyped = false;
+            e.consume();
+            return;
+        }
+        beginPriority();
+        try {
+            fireKeyEvent(e);
+        }
+        finally {
+            endPriority();
+        }
+        if (e.getID() == KeyEvent.KEY_TYPED && !isScrollLock())
             scrollRectToVisible(new Rectangle(0, cursorY * getCharHeight(), 1, (cursorY + 1) * getCharHeight() - 1));
     }    
     
     
+    // handles the selection and clipboard shortcuts, returning true if the key was one of them
+    private boolean processClipboardKey(KeyEvent e) {
+        int modifiers = e.getModifiers() & (InputEvent.CTRL_MASK | InputEvent.SHIFT_MASK | InputEvent.ALT_MASK | InputEvent.META_MASK);
+        int keyCode = e.getKeyCode();
+        boolean ctrlShift = modifiers == (InputEvent.CTRL_MASK | InputEvent.SHIFT_MASK);
+        if ((ctrlShift && keyCode == KeyEvent.VK_C) || (modifiers == InputEvent.CTRL_MASK && keyCode == KeyEvent.VK_INSERT)
+                || keyCode == KeyEvent.VK_COPY) {
+            try {
+                copySelection();
+            }
+            catch (IllegalStateException ex) {
+                // the clipboard is in use by another application;  the copy is lost, as with a failed keystroke
+            }
+        }
+        else if ((keyCode == KeyEvent.VK_V && (modifiers == InputEvent.CTRL_MASK || ctrlShift))
+                || (modifiers == InputEvent.SHIFT_MASK && keyCode == KeyEvent.VK_INSERT) || keyCode == KeyEvent.VK_PASTE) {
+            try {
+                paste();
+            }
+            catch (IllegalStateException ex) {
+                // the clipboard is in use by another application
+            }
+        }
+        else if (ctrlShift && keyCode == KeyEvent.VK_A)
+            selectAll();
+        else
+            return false;
+        swallowKeyTyped = (modifiers & InputEvent.CTRL_MASK) != 0; // Ctrl+letter also types a control character
+        return true;
+    }
+    
+    
+    // marks the start of key handling on the event dispatch thread
+    private void beginPriority() {
+        priorityThread = Thread.currentThread();
+        priorityDepth++; // only modified on the event dispatch thread
+    }
+    
+    
+    // marks the end of key handling, paints the cells it changed and releases waiting bulk writes
+    private void endPriority() {
+        if (--priorityDepth > 0)
+            return;
+        priorityThread = null;
+        Rectangle r;
+        synchronized (this) {
+            r = priorityRegion;
+            priorityRegion = null;
+        }
+        if (r != null)
+            paintImmediately(r.x * charWidth, r.y * charHeight, r.width * charWidth, r.height * charHeight);
+        synchronized (priorityLock) {
+            priorityLock.notifyAll();
+        }
+    }
+    
+    
+    // called before a bulk write acquires the lock:  if key handling is in progress on
+    // another thread, waits for it to finish, but for no more than PRIORITY_WAIT
+    // milliseconds, so that bulk output always makes progress
+    private void yieldToPriority() {
+        if (priorityDepth == 0 || Thread.currentThread() == priorityThread || Thread.holdsLock(this))
+            return;
+        long deadline = System.currentTimeMillis() + PRIORITY_WAIT;
+        synchronized (priorityLock) {
+            while (priorityDepth > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                try {
+                    priorityLock.wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+    
+    
     private void fireKeyEvent(KeyEvent e) {
         super.processKeyEvent(e);
         Object[] listeners = listenerList.getListenerList();
@@ -370,19 +661,215 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     }
     
     
+    public void addTextPasteListener(TextPasteListener l) {
+        listenerList.add(TextPasteListener.class, l);
+    }
+    
+    
+    public void removeTextPasteListener(TextPasteListener l) {
+        listenerList.remove(TextPasteListener.class, l);
+    }
+    
+    
     protected void processMouseEvent(MouseEvent e) {
-        if (e.getID() == MouseEvent.MOUSE_PRESSED)
+        if (e.getID() == MouseEvent.MOUSE_PRESSED) {
             requestFocus();
+            if (SwingUtilities.isLeftMouseButton(e))
+                startSelection(e);
+        }
+        else if (e.getID() == MouseEvent.MOUSE_RELEASED && SwingUtilities.isLeftMouseButton(e))
+            exportSelection();
         fireMouseEvent(e);
     }
     
     
     protected void processMouseMotionEvent(MouseEvent e) {
         super.processMouseMotionEvent(e);
+        if (e.getID() == MouseEvent.MOUSE_DRAGGED && SwingUtilities.isLeftMouseButton(e)) {
+            extendSelection(e.getX(), e.getY(), e.isAltDown());
+            scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+        }
         fireMouseMotionEvent(e);
     }
     
     
+    // begins a new selection at the mouse position, or extends the existing one on Shift-click
+    private synchronized void startSelection(MouseEvent e) {
+        if (!e.isShiftDown() || selection == null) {
+            selectionAnchorRow = getSelectionRow(e.getY());
+            selectionAnchorColumn = getSelectionColumn(e.getX());
+        }
+        extendSelection(e.getX(), e.getY(), e.isAltDown());
+    }
+    
+    
+    // moves the free end of the selection to the cell boundary nearest the specified point
+    private synchronized void extendSelection(int x, int y, boolean rectangular) {
+        setSelection(new SelectionTransferable(this, selectionAnchorRow, selectionAnchorColumn, 
+                                               getSelectionRow(y), getSelectionColumn(x), rectangular, alternateScreen));
+    }
+    
+    
+    // returns the absolute row under the specified y coordinate, within the row store
+    private long getSelectionRow(int y) {
+        int row = Math.max(0, Math.min(rows - 1, y / charHeight));
+        return getRowBase() + row;
+    }
+    
+    
+    // returns the cell boundary nearest the specified x coordinate, as TextMouseEvent's bias does
+    private int getSelectionColumn(int x) {
+        return Math.max(0, Math.min(columns, (x + charWidth / 2) / charWidth));
+    }
+    
+    
+    // returns the absolute index of physical row 0 of the displayed row store
+    private long getRowBase() {
+        return alternateScreen ? 0 : discardedRows;
+    }
+    
+    
+    // replaces the selection, repainting the rows covered by the old and the new one
+    private synchronized void setSelection(SelectionTransferable newSelection) {
+        if (newSelection != null && newSelection.isEmpty())
+            newSelection = null;
+        repaintSelection();
+        selection = newSelection;
+        repaintSelection();
+    }
+    
+    
+    private synchronized void repaintSelection() {
+        if (selection == null)
+            return;
+        long base = getRowBase();
+        int first = (int) Math.max(0, selection.getFirstRow() - base);
+        int last = (int) Math.min(rows - 1, selection.getLastRow() - base);
+        if (first <= last)
+            scheduleRepaint(0, first, columns, last - first + 1);
+    }
+    
+    
+    // offers the selection as the X Window System's primary selection, where there is one
+    private void exportSelection() {
+        Transferable contents = getSelectionContents();
+        if (contents == null)
+            return;
+        try {
+            Clipboard systemSelection = getToolkit().getSystemSelection();
+            if (systemSelection != null)
+                systemSelection.setContents(contents, null);
+        }
+        catch (SecurityException e) {
+            // not permitted to access the selection
+        }
+        catch (IllegalStateException e) {
+            // the selection is in use by another application
+        }
+    }
+    
+    
+    /** 
+     * Selects every row in the window, including the entire scrollback.
+     *
+     *@see #copySelection
+     */
+    public synchronized void selectAll() {
+        selectionAnchorRow = getRowBase();
+        selectionAnchorColumn = 0;
+        setSelection(new SelectionTransferable(this, selectionAnchorRow, 0, getRowBase() + rows - 1, columns, 
+                                               false, alternateScreen));
+    }
+    
+    
+    /** 
+     * Deselects any selected text.
+     */
+    public synchronized void clearSelection() {
+        setSelection(null);
+    }
+    
+    
+    /** 
+     * Returns <code>true</code> if any text is selected.
+     */
+    public synchronized boolean hasSelection() {
+        return selection != null;
+    }
+    
+    
+    /** 
+     * Returns the selected text as a <code>Transferable</code> offering it as a
+     * <code>String</code> and as a <code>java.io.Reader</code>, or <code>null</code> if
+     * nothing is selected.  The selected rows which are on the screen, where output
+     * may still change them, are copied immediately, as is a selection on the alternate
+     * screen, whose contents are lost when it is dismissed.  Rows in the scrollback
+     * never change, so they are read from the window only when the text is requested,
+     * and those which have been discarded from the scrollback in the meantime are
+     * omitted.
+     *
+     *@see #copySelection
+     */
+    public synchronized Transferable getSelectionContents() {
+        if (selection == null)
+            return null;
+        if (selection.isAlternate())
+            return new StringSelection(selection.getText());
+        return selection.copyScreenRows(getRowLimit() - logicalRows);
+    }
+    
+    
+    /** 
+     * Copies the selected text, if any, to the system clipboard.
+     *
+     *@throws IllegalStateException if the clipboard is currently unavailable
+     *@see #getSelectionContents
+     */
+    public void copySelection() {
+        Transferable contents = getSelectionContents();
+        if (contents != null)
+            getToolkit().getSystemClipboard().setContents(contents, null);
+    }
+    
+    
+    /** 
+     * Pastes the text on the system clipboard, if there is any, by notifying the
+     * window's <code>TextPasteListeners</code>.  The clipboard is read once, and its
+     * entire text is delivered in a single event.
+     *
+     *@throws IllegalStateException if the clipboard is currently unavailable
+     *@see TextPasteListener
+     */
+    public void paste() {
+        Transferable contents = getToolkit().getSystemClipboard().getContents(this);
+        if (contents == null || !contents.isDataFlavorSupported(DataFlavor.stringFlavor))
+            return;
+        String text;
+        try {
+            text = (String) contents.getTransferData(DataFlavor.stringFlavor);
+        }
+        catch (UnsupportedFlavorException e) {
+            return;
+        }
+        catch (IOException e) {
+            return; // the clipboard's owner no longer has the data
+        }
+        if (text.length() > 0)
+            firePasted(new TextWindowEvent(this, text));
+    }
+    
+    
+    protected void firePasted(TextWindowEvent e) {
+        Object[] listeners = listenerList.getListenerList();
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == TextPasteListener.class) {
+                TextPasteListener listener = ((TextPasteListener) listeners[i + 1]);
+                listener.textPasted(e);
+            }
+        }
+    }
+    
+    
     private TextMouseEvent createTextMouseEvent(MouseEvent e) {
         int bias = e.getX() % getCharWidth() < (getCharWidth() / 2) ? TextMouseEvent.BIAS_LEFT : TextMouseEvent.BIAS_RIGHT;
         return new TextMouseEvent((Component) e.getSource(), e.getID(), e.getWhen(), e.getModifiers(), e.getX() / getCharWidth(),
@@ -430,9 +917,9 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
 
     protected void processFocusEvent(FocusEvent e) {
         super.processFocusEvent(e);
-        cursorTimer.restart();
+        restartCursor();
         cursorState = e.getID() == FocusEvent.FOCUS_GAINED;
-        repaintChar(cursorX, cursorY);
+        repaintCursorCell(cursorX, cursorY);
     }
     
     
@@ -453,18 +940,35 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     // be done at a higher level
     protected final void advance(char c) {
         cursorState = true;
-        cursorTimer.restart();
+        restartCursor();
         switch (c) {
-            case '\n': cursorX = 0;  if (++cursorY >= rows) scrollByOneRow();  break;
+            case '\n': cursorX = 0;  lineFeed();  break;
             case '\r': break;
             default:
                 if (++cursorX >= logicalColumns) {
                     cursorX = 0;
-                    if (++cursorY >= rows)
-                        scrollByOneRow();
+                    lineFeed();
                 }
         }
-        repaintChar(cursorX, cursorY);
+        repaintCursorCell(cursorX, cursorY);
+    }
+    
+    
+    // moves the cursor down one row.  At the bottom margin of a scroll region only
+    // the region scrolls; below the region the cursor sticks to the last row, as
+    // on a VT100.
+    private void lineFeed() {
+        if (scrollTop != -1) {
+            int offset = rows - logicalRows;
+            if (cursorY == scrollBottom + offset) {
+                scrollRegion(scrollTop + offset, scrollBottom + offset);
+                return;
+            }
+            if (cursorY >= rows - 1)
+                return;
+        }
+        if (++cursorY >= rows)
+            scrollByOneRow();
     }
     
     
@@ -516,13 +1020,16 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
 
 
  
-    public synchronized void output(char c) {
-        outputRaw(c, defaultAttributes, false);
+    public void output(char c) {
+        output(c, defaultAttributes);
     }
     
         
-    public synchronized void output(char c, TextAttributes attributes) {
-        outputRaw(c, attributes, false);
+    public void output(char c, TextAttributes attributes) {
+        yieldToPriority();
+        synchronized (this) {
+            outputRaw(c, attributes, false);
+        }
     }
     
     
@@ -531,33 +1038,68 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     }
     
     
+    /** 
+     * As in <code>TextWindow</code>.  <code>y</code> is a screen row;  releases up to
+     * beta-0.2 instead treated it as a row of the whole buffer, counting from the
+     * oldest row of the scrollback, which placed characters too high once the window
+     * had scrolled.
+     */
     public synchronized void output(int x, int y, char c, TextAttributes attributes) {
+        y += rows - logicalRows; // screen to physical row, as in setCursorPosition
         chars[y][x] = c;
         this.attributes[y][x] = attributes;
         repaintChar(x, y);
     }
 
     
-    public synchronized void output(char[] c, int offset, int length) {
+    public void output(char[] c, int offset, int length) {
         output(c, offset, length, defaultAttributes);
     }
     
     
-    public synchronized void output(char[] c, int offset, int length, TextAttributes attributes) {
-        for (int i = offset; i < length; i++)
-            output(c[i], attributes);
+    /** 
+     * As in <code>TextWindow</code>, except that long arrays are output in chunks, each
+     * under a separate acquisition of the window's lock, so that pending keyboard input
+     * is not held up by the whole array.  Concurrent output from other threads may
+     * therefore appear between chunks.
+     */
+    public void output(char[] c, int offset, int length, TextAttributes attributes) {
+        if (length < 0)
+            throw new IllegalArgumentException("count must be non-negative: " + length);
+        if (offset < 0 || offset + length > c.length)
+            throw new IndexOutOfBoundsException("offset = " + offset + ", count = " + length);
+        int end = offset + length;
+        while (offset < end) {
+            yieldToPriority();
+            int chunkEnd = Math.min(end, offset + BULK_CHUNK);
+            synchronized (this) {
+                for (; offset < chunkEnd; offset++)
+                    outputRaw(c[offset], attributes, false);
+            }
+        }
     }
     
         
-    public synchronized void output(String s) {
+    public void output(String s) {
         output(s, defaultAttributes);
     }
     
     
-    public synchronized void output(String s, TextAttributes attributes) {
+    /** 
+     * As in <code>TextWindow</code>, except that long strings are output in chunks, as
+     * with {@link #output(char[], int, int, TextAttributes)}.
+     */
+    public void output(String s, TextAttributes attributes) {
         int length = s.length();
-        for (int i = 0; i < length; i++)
-            output(s.charAt(i), attributes);
+        int i = 0;
+        while (i < length) {
+            yieldToPriority();
+            int chunkEnd = Math.min(length, i + BULK_CHUNK);
+            synchronized (this) {
+                for (; i < chunkEnd; i++)
+                    outputRaw(s.charAt(i), attributes, false);
+            }
+        }
     }
     
     
@@ -577,7 +1119,7 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
         char[] spareCharRow;
         TextAttributes[] spareAttributeRow;
         
-        if (rows < scrollback) {
+        if (rows < scrollback && !alternateScreen) {
             spareCharRow = new char[columns];
             spareAttributeRow = new TextAttributes[columns];
             if (row == rows - 1)
@@ -587,6 +1129,10 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
             System.arraycopy(attributes, row, attributes, row + 1, rows - row - 1);
         }
         else {
+            if (scrollLock && row == rows - 1)
+                lockedScrolls++;
+            if (!alternateScreen)
+                discardedRows++;
             spareCharRow = chars[0];
             if (row > 0)
                 System.arraycopy(chars, 1, chars, 0, row);
@@ -606,6 +1152,254 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     }
 
 
+    /** 
+     * Restricts scrolling to the rows between <code>top</code> and <code>bottom</code>,
+     * inclusive.  A line feed at the bottom margin rotates only the rows inside the
+     * region, leaving the rows above and below it (and the scrollback buffer) untouched.
+     * A region covering the entire window is equivalent to having no region at all.
+     *
+     *@param top the first row of the scroll region
+     *@param bottom the last row of the scroll region
+     *@throws IllegalArgumentException if the region is empty or does not fit inside the window
+     *@see #clearScrollRegion
+     */
+    public synchronized void setScrollRegion(int top, int bottom) {
+        if (top < 0 || bottom >= logicalRows || top >= bottom)
+            throw new IllegalArgumentException("invalid scroll region: " + top + " to " + bottom);
+        if (top == 0 && bottom == logicalRows - 1)
+            clearScrollRegion();
+        else {
+            scrollTop = top;
+            scrollBottom = bottom;
+        }
+    }
+    
+    
+    /** 
+     * Removes the scroll region, so that the entire window scrolls.
+     *
+     *@see #setScrollRegion
+     */
+    public synchronized void clearScrollRegion() {
+        scrollTop = -1;
+        scrollBottom = -1;
+    }
+    
+    
+    // rotates the rows between top and bottom (physical rows, inclusive) up by one.
+    // Only the row references move, so the cost is one reference per row of the region,
+    // which is at most a screenful;  the blanked row and the repaint of the region cost
+    // more, so a rotating origin per region would not change the cost of a line feed.
+    private void scrollRegion(int top, int bottom) {
+        char[] spareCharRow = chars[top];
+        TextAttributes[] spareAttributeRow = attributes[top];
+        System.arraycopy(chars, top + 1, chars, top, bottom - top);
+        System.arraycopy(attributes, top + 1, attributes, top, bottom - top);
+
+        Arrays.fill(spareCharRow, ' ');
+        chars[bottom] = spareCharRow;
+
+        Arrays.fill(spareAttributeRow, defaultAttributes);
+        attributes[bottom] = spareAttributeRow;
+
+        repaintCells(0, top, columns, bottom - top + 1);
+    }
+
+
+    /** 
+     * Switches between the primary screen and the alternate screen.  The alternate
+     * screen is exactly one window high and has no scrollback, which makes it suitable
+     * for full-screen programs such as pagers and editors.  Switching swaps the row
+     * stores rather than copying them, so the primary screen and its scrollback are
+     * restored intact, with a single repaint, when the alternate screen is dismissed.
+     * The alternate screen is cleared each time it is entered.
+     *
+     *@param alternate <code>true</code> to display the alternate screen, <code>false</code> to return to the primary screen
+     *@see #isAlternateScreen
+     */
+    public synchronized void setAlternateScreen(boolean alternate) {
+        if (alternate == alternateScreen)
+            return;
+        if (alternate) {
+            primaryChars = chars;
+            primaryAttributes = attributes;
+            primaryRows = rows;
+            primaryColumns = columns;
+            primaryCursorX = cursorX;
+            primaryCursorY = cursorY;
+            selection = null;
+            
+            if (alternateChars == null || alternateChars.length != logicalRows || alternateChars[0].length != columns) {
+                alternateChars = new char[logicalRows][columns];
+                alternateAttributes = new TextAttributes[logicalRows][columns];
+            }
+            for (int i = 0; i < logicalRows; i++) {
+                Arrays.fill(alternateChars[i], ' ');
+                Arrays.fill(alternateAttributes[i], defaultAttributes);
+            }
+            chars = alternateChars;
+            attributes = alternateAttributes;
+            cursorY = Math.max(0, cursorY - (rows - logicalRows));
+            rows = logicalRows;
+            alternateScreen = true;
+        }
+        else {
+            alternateChars = chars; // may have been reallocated by a resize
+            alternateAttributes = attributes;
+            int alternateColumns = columns;
+            
+            chars = primaryChars;
+            attributes = primaryAttributes;
+            rows = primaryRows;
+            columns = primaryColumns;
+            cursorX = primaryCursorX;
+            cursorY = primaryCursorY;
+            primaryChars = null;
+            primaryAttributes = null;
+            alternateScreen = false;
+            selection = null;
+            
+            if (columns != alternateColumns || rows < logicalRows) // window was resized in the meantime
+                setGridSize(Math.max(columns, alternateColumns), Math.max(rows, logicalRows), logicalColumns);
+            snapToBottom = true;
+        }
+        valid = false;
+        repaint();
+    }
+    
+    
+    /** 
+     * Returns <code>true</code> if the alternate screen is currently displayed.
+     *
+     *@see #setAlternateScreen
+     */
+    public synchronized boolean isAlternateScreen() {
+        return alternateScreen;
+    }
+    
+    
+    /** 
+     * Turns scroll lock on or off.  While scroll lock is on, output continues to be
+     * stored, but the window no longer scrolls to follow it:  the rows the user is
+     * reading stay in view, and only changes to those rows are painted.  When scroll
+     * lock is turned off, the window catches up with a single repaint at the bottom.
+     * The Scroll Lock key toggles this setting.
+     *
+     *@param scrollLock <code>true</code> to freeze the viewport, <code>false</code> to follow output again
+     *@see #isScrollLock
+     */
+    public synchronized void setScrollLock(boolean scrollLock) {
+        if (scrollLock == this.scrollLock)
+            return;
+        this.scrollLock = scrollLock;
+        lockedScrolls = 0;
+        if (!scrollLock) {
+            snapToBottom = true;
+            repaint();
+        }
+    }
+    
+    
+    /** 
+     * Returns <code>true</code> if scroll lock is on.
+     *
+     *@see #setScrollLock
+     */
+    public synchronized boolean isScrollLock() {
+        return scrollLock;
+    }
+    
+    
+    /** 
+     * Creates a new, entirely transparent {@link TextLayer} above the text grid.
+     * The layer is positioned at the top left corner of the window and is drawn
+     * above all existing layers with a z order less than or equal to <code>z</code>.
+     *
+     *@param columns the width of the layer
+     *@param rows the height of the layer
+     *@param z the z order of the layer;  higher layers are drawn above lower ones
+     *@return the new layer
+     *@throws IllegalArgumentException if <code>columns</code> or <code>rows</code> is not positive
+     *@see #removeLayer
+     */
+    public synchronized TextLayer createLayer(int columns, int rows, int z) {
+        TextLayer layer = new TextLayer(this, columns, rows, z);
+        int index = layers.length;
+        while (index > 0 && layers[index - 1].getZOrder() > z)
+            index--;
+        TextLayer[] newLayers = new TextLayer[layers.length + 1];
+        System.arraycopy(layers, 0, newLayers, 0, index);
+        newLayers[index] = layer;
+        System.arraycopy(layers, index, newLayers, index + 1, layers.length - index);
+        layers = newLayers;
+        return layer;
+    }
+    
+    
+    /** 
+     * Removes a layer from this window, repainting the area it covered.  It is not
+     * an error to remove a layer which has already been removed.
+     *
+     *@param layer the layer to remove
+     *@see #createLayer
+     */
+    public synchronized void removeLayer(TextLayer layer) {
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i] == layer) {
+                TextLayer[] newLayers = new TextLayer[layers.length - 1];
+                System.arraycopy(layers, 0, newLayers, 0, i);
+                System.arraycopy(layers, i + 1, newLayers, i, layers.length - i - 1);
+                layers = newLayers;
+                repaintScreenCells(layer.getX(), layer.getY(), layer.getColumns(), layer.getRows());
+                return;
+            }
+        }
+    }
+    
+    
+    // returns the absolute index of the row following the last row of the primary row store
+    synchronized long getRowLimit() {
+        return discardedRows + (alternateScreen ? primaryRows : rows);
+    }
+    
+    
+    // copies rows of the primary row store, starting at the specified absolute row (or at
+    // the oldest row still stored, if that one has since been discarded) and ending before
+    // limit, into the buffer until it is full.  Only the buffer's own arrays are written,
+    // so the lock is held just for the copy.
+    synchronized void copyRows(long first, long limit, RowBuffer buffer) {
+        copyRows(first, limit, buffer, false);
+    }
+    
+    
+    // as copyRows, but from the alternate screen if alternate is true.  The alternate
+    // screen has no scrollback, so its absolute row indices are its physical ones;  once
+    // it has been dismissed, no rows are copied from it.
+    synchronized void copyRows(long first, long limit, RowBuffer buffer, boolean alternate) {
+        char[][] storeChars = alternateScreen ? primaryChars : chars;
+        TextAttributes[][] storeAttributes = alternateScreen ? primaryAttributes : attributes;
+        int storeRows = alternateScreen ? primaryRows : rows;
+        long base = discardedRows;
+        if (alternate) {
+            storeChars = chars;
+            storeAttributes = attributes;
+            storeRows = alternateScreen ? rows : 0;
+            base = 0;
+        }
+        int storeColumns = storeChars.length > 0 ? storeChars[0].length : 0;
+        
+        first = Math.max(first, base);
+        limit = Math.min(limit, base + storeRows);
+        int count = (int) Math.max(0, Math.min(buffer.getCapacity(), limit - first));
+        buffer.reset(first, count, storeColumns);
+        int start = (int) (first - base);
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(storeChars[start + i], 0, buffer.chars[i], 0, storeColumns);
+            System.arraycopy(storeAttributes[start + i], 0, buffer.attributes[i], 0, storeColumns);
+        }
+    }
+    
+    
     private synchronized void scrollByOneRow() {
         int oldRows = rows;
         snapToBottom = true;
@@ -616,38 +1410,167 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
     
     
     protected void paintRun(Graphics g, int row, int start, int end, TextAttributes attributes) {
+        paintRun(g, chars[row], row, start, end, attributes);
+    }
+    
+    
+    private void paintRun(Graphics g, char[] rowChars, int row, int start, int end, TextAttributes attributes) {
         if (attributes == null)
             attributes = defaultAttributes;
         int startX = start * charWidth;
         int startY = row * charHeight;
-        Color background = attributes.getBackground();
+        int width = (end - start) * charWidth;
+        Color background = attributes.getDisplayBackground();
         if (!background.equals(defaultAttributes.getBackground())) {
             g.setColor(background);
-            g.fillRect(startX, startY , (end - start) * charWidth, charHeight);
+            g.fillRect(startX, startY , width, charHeight);
+        }
+        g.setColor(attributes.getDisplayForeground());
+        int style = attributes.getStyle();
+        if ((style & TextAttributes.BOLD) != 0) {
+            Font font = g.getFont();
+            g.setFont(boldFont);
+            g.drawChars(rowChars, start, end - start, startX, startY + baseline);
+            g.setFont(font);
         }
-        g.setColor(attributes.getForeground());
-        g.drawChars(chars[row], start, end - start, startX, startY + baseline);
+        else
+            g.drawChars(rowChars, start, end - start, startX, startY + baseline);
+        if ((style & TextAttributes.UNDERLINE) != 0)
+            g.fillRect(startX, startY + baseline + underlineOffset, width, underlineThickness);
+        if ((style & TextAttributes.STRIKETHROUGH) != 0)
+            g.fillRect(startX, startY + baseline + strikethroughOffset, width, strikethroughThickness);
     }
     
     
     public synchronized void repaint() {
         dirtyRegion = new Rectangle(0, 0, getWidth(), getHeight());
-        if (!repaintTimer.isRunning())
-            repaintTimer.start();
+        if (trackDamage)
+            recordDamage(0, rows - logicalRows, logicalColumns, logicalRows);
+        clock.requestRepaint();
+    }
+    
+    
+    // as repaintCells, but in screen rather than physical row coordinates
+    synchronized void repaintScreenCells(int x, int y, int width, int height) {
+        repaintCells(x, y + rows - logicalRows, width, height);
     }
     
     
     private synchronized void repaintChar(int x, int y) {
+        repaintCells(x, y, 1, 1);
+    }    
+
+    
+    // repaints the cursor's cell, which does not count as a change to the content
+    private synchronized void repaintCursorCell(int x, int y) {
+        scheduleRepaint(x, y, 1, 1);
+    }
+    
+    
+    private synchronized void repaintCells(int x, int y, int width, int height) {
+        if (trackDamage)
+            recordDamage(x, y, width, height);
+        scheduleRepaint(x, y, width, height);
+    }
+    
+    
+    private void scheduleRepaint(int x, int y, int width, int height) {
+        //assert Thread.holdsLock(this);
+        if (priorityDepth > 0 && Thread.currentThread() == priorityThread) {
+            // painted by endPriority, ahead of any bulk damage
+            if (priorityRegion == null)
+                priorityRegion = new Rectangle(x, y, width, height);
+            else
+                SwingUtilities.computeUnion(x, y, width, height, priorityRegion);
+            return;
+        }
         if (dirtyRegion == null)
-            dirtyRegion = new Rectangle(x, y, 1, 1);
+            dirtyRegion = new Rectangle(x, y, width, height);
         else
-            SwingUtilities.computeUnion(x, y, 1, 1, dirtyRegion);
+            SwingUtilities.computeUnion(x, y, width, height, dirtyRegion);
 
-        if (!repaintTimer.isRunning())
-            repaintTimer.start();
+        clock.requestRepaint();
     }    
 
     
+    // adds the specified physical cells to the damage to report in the next
+    // contentChanged event.  Only the visible part of the grid is tracked.
+    private void recordDamage(int x, int y, int width, int height) {
+        //assert Thread.holdsLock(this);
+        if (damageStart == null || damageStart.length != logicalRows) {
+            damageStart = new int[logicalRows];
+            damageEnd = new int[logicalRows];
+            Arrays.fill(damageStart, Integer.MAX_VALUE);
+            damagedRowCount = 0;
+        }
+        int offset = rows - logicalRows;
+        int firstRow = Math.max(y - offset, 0);
+        int lastRow = Math.min(y + height - offset, logicalRows);
+        int start = Math.max(x, 0);
+        int end = Math.min(x + width, logicalColumns);
+        if (start >= end)
+            return;
+        for (int i = firstRow; i < lastRow; i++) {
+            if (damageStart[i] == Integer.MAX_VALUE) {
+                damagedRowCount++;
+                damageStart[i] = start;
+                damageEnd[i] = end;
+            }
+            else {
+                if (start < damageStart[i])
+                    damageStart[i] = start;
+                if (end > damageEnd[i])
+                    damageEnd[i] = end;
+            }
+        }
+    }
+    
+    
+    // returns an event describing the damage recorded since the last call, or null if
+    // nothing has changed, and resets the damage
+    private TextWindowEvent takeDamage() {
+        //assert Thread.holdsLock(this);
+        if (damagedRowCount == 0)
+            return null;
+        int[] spans = new int[damagedRowCount * 3];
+        int index = 0;
+        for (int i = 0; i < damageStart.length; i++) {
+            if (damageStart[i] != Integer.MAX_VALUE) {
+                spans[index++] = i;
+                spans[index++] = damageStart[i];
+                spans[index++] = damageEnd[i];
+                damageStart[i] = Integer.MAX_VALUE;
+            }
+        }
+        damagedRowCount = 0;
+        return new TextWindowEvent(this, TextWindowEvent.CONTENT_CHANGED, spans);
+    }
+    
+    
+    // composites any layers covering the specified row into compositeChars and
+    // compositeAttributes.  Returns false, without touching the buffers, if no layer
+    // covers the row.
+    private synchronized boolean compositeLayers(int row, int startColumn, int endColumn) {
+        int screenRow = row - (rows - logicalRows);
+        boolean covered = false;
+        for (int i = 0; i < layers.length && !covered; i++)
+            covered = layers[i].coversRow(screenRow);
+        if (!covered)
+            return false;
+        
+        if (compositeChars == null || compositeChars.length < columns) {
+            compositeChars = new char[columns];
+            compositeAttributes = new TextAttributes[columns];
+        }
+        endColumn = Math.min(endColumn, chars[row].length);
+        System.arraycopy(chars[row], startColumn, compositeChars, startColumn, endColumn - startColumn);
+        System.arraycopy(attributes[row], startColumn, compositeAttributes, startColumn, endColumn - startColumn);
+        for (int i = 0; i < layers.length; i++)
+            layers[i].composite(screenRow, startColumn, endColumn, compositeChars, compositeAttributes);
+        return true;
+    }
+    
+    
     private Rectangle visibleRect = new Rectangle(); // avoid temporary object creation
     
     public void paint(Graphics g) {
@@ -670,25 +1593,62 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
         startColumn = clip.x / charWidth;
         endColumn = Math.min(columns, startColumn + (clip.width + charWidth - 1) / charWidth + 1);
 
+        SelectionTransferable selection = this.selection;
+        long rowBase = getRowBase();
+        int[] span = new int[2];
         for (int i = startRow; i < endRow; i++) {
+            char[] rowChars = chars[i];
+            TextAttributes[] rowAttributes = attributes[i];
+            if (layers.length > 0 && compositeLayers(i, startColumn, endColumn)) {
+                rowChars = compositeChars;
+                rowAttributes = compositeAttributes;
+            }
+            
+            // runs are also broken at the edges of the selection, which is drawn inverted
+            int selectionStart = -1;
+            int selectionEnd = -1;
+            if (selection != null && selection.getSpan(rowBase + i, columns, span)) {
+                selectionStart = span[0];
+                selectionEnd = span[1];
+            }
+            
             int start = startColumn;
             TextAttributes currentAttributes = defaultAttributes;
             for (int j = startColumn; j < endColumn; j++) {
-                if (currentAttributes != attributes[i][j]) {
+                // attributes are normally shared instances, so equals() only runs at run boundaries
+                if (j == selectionStart || j == selectionEnd || 
+                        (currentAttributes != rowAttributes[j] && !sameAttributes(currentAttributes, rowAttributes[j]))) {
                     if (start != j)
-                       paintRun(g, i, start, j, currentAttributes);
+                       paintRun(g, rowChars, i, start, j, 
+                                getPaintAttributes(currentAttributes, start >= selectionStart && start < selectionEnd));
                     start = j;
-                    currentAttributes = attributes[i][j];
+                    currentAttributes = rowAttributes[j];
                 }
             }
             
-            paintRun(g, i, start, endColumn, currentAttributes);
+            paintRun(g, rowChars, i, start, endColumn, 
+                     getPaintAttributes(currentAttributes, start >= selectionStart && start < selectionEnd));
         }
 
         paintCursor(g);
     }
     
     
+    private static boolean sameAttributes(TextAttributes a, TextAttributes b) {
+        return a != null && a.equals(b);
+    }
+    
+    
+    // returns the attributes with which to paint a run, inverted if it is selected
+    private TextAttributes getPaintAttributes(TextAttributes attributes, boolean selected) {
+        if (!selected)
+            return attributes;
+        if (attributes == null)
+            attributes = defaultAttributes;
+        return attributes.deriveStyle(attributes.getStyle() ^ TextAttributes.INVERSE);
+    }
+    
+    
     public Color getCursorColor() {
         //assert cursorColor != null : "cursorColor undefined";
         return cursorColor;
@@ -724,6 +1684,8 @@ public class Java2DTextWindow extends JComponent implements TextWindow, Scrollab
         Rectangle rect = getVisibleRect();
         int columns = rect.width / getCharWidth();
         logicalRows =  rect.height / getCharHeight();
+        if (scrollBottom >= logicalRows)
+            clearScrollRegion();
         if (columns != logicalColumns || logicalRows > this.rows) {
              setGridSize(Math.max(columns, this.columns), Math.max(logicalRows, this.rows), columns);
         }
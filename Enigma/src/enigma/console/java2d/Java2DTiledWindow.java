@@ -0,0 +1,182 @@
+package enigma.console.java2d;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.LayoutManager;
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+
+/**
+ * A single component which hosts several independent <code>Java2DTextWindows</code>,
+ * tiled side by side.  Panes are positioned and sized in character cells rather than
+ * pixels, and all panes share one repaint and cursor clock, so that output to any
+ * number of panes results in a single paint pass per frame.
+ *
+ * <p>Each pane is an ordinary <code>TextWindow</code> with its own scrollback buffer,
+ * and may be wrapped in a {@link DefaultConsoleImpl} (or created directly with
+ * {@link #createConsole}) to serve as an independent <code>Console</code>.  For
+ * example, a tool with a log pane above a command pane might be laid out as:</p>
+ *
+ * <pre>
+ *   Java2DTiledWindow tiles = new Java2DTiledWindow();
+ *   Console log = tiles.createConsole(0, 0, 80, 20, 2000);
+ *   Console commands = tiles.createConsole(0, 20, 80, 5, 500);
+ * </pre>
+ *
+ *@status.experimental
+ *@see Java2DTextWindow
+ */
+public class Java2DTiledWindow extends JComponent {
+    private static final long serialVersionUID = -3209216524735911548L;
+
+    private final RenderClock clock = new RenderClock();
+
+    /** Each pane's bounds, in cells. */
+    private final Map<Java2DTextWindow, Rectangle> cells = new HashMap<Java2DTextWindow, Rectangle>();
+
+    private Font font = new Font("Monospaced", 0, 12);
+    private Dimension cellSize = Java2DTextWindow.getCellSize(font);
+
+
+    /** Constructs a new, empty <code>Java2DTiledWindow</code>. */
+    public Java2DTiledWindow() {
+        setLayout(new CellLayout());
+    }
+
+
+    /**
+     * Sets the font used by every pane, which should be a monospaced font.  The
+     * window's pixel size changes accordingly, while the cell layout is unaffected.
+     */
+    public void setFont(Font font) {
+        this.font = font;
+        this.cellSize = Java2DTextWindow.getCellSize(font);
+        for (Java2DTextWindow pane : getPanes())
+            pane.setFont(font);
+        super.setFont(font);
+        revalidate();
+    }
+
+
+    /**
+     * Adds a new pane occupying the specified rectangle of cells.  Panes should not
+     * overlap.
+     *
+     *@param x the column of the pane's left edge
+     *@param y the row of the pane's top edge
+     *@param columns the width of the pane
+     *@param rows the height of the pane
+     *@param scrollback the maximum number of rows the pane will remember
+     *@return the new pane
+     *@throws IllegalArgumentException if the position is negative or the size is not positive
+     */
+    public Java2DTextWindow createPane(int x, int y, int columns, int rows, int scrollback) {
+        if (x < 0 || y < 0 || columns <= 0 || rows <= 0)
+            throw new IllegalArgumentException("invalid pane bounds: " + new Rectangle(x, y, columns, rows));
+        Java2DTextWindow pane = new Java2DTextWindow(columns, rows, scrollback, clock);
+        pane.setFont(font);
+        JScrollPane scrollPane = new JScrollPane(pane, JScrollPane.VERTICAL_SCROLLBAR_NEVER,
+                                                       JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        synchronized (cells) {
+            cells.put(pane, new Rectangle(x, y, columns, rows));
+        }
+        add(scrollPane);
+        revalidate();
+        return pane;
+    }
+
+
+    /**
+     * As {@link #createPane}, but wraps the new pane in a <code>Console</code>.
+     *
+     *@return a <code>Console</code> displayed in the new pane
+     */
+    public Console createConsole(int x, int y, int columns, int rows, int scrollback) {
+        return new DefaultConsoleImpl(createPane(x, y, columns, rows, scrollback));
+    }
+
+
+    /**
+     * Removes a pane from this window.  It is not an error to remove a pane which
+     * does not belong to this window.
+     *
+     *@param pane the pane to remove
+     */
+    public void removePane(Java2DTextWindow pane) {
+        synchronized (cells) {
+            if (cells.remove(pane) == null)
+                return;
+        }
+        clock.removeWindow(pane);
+        remove(pane.getParent().getParent()); // pane -> viewport -> scroll pane
+        revalidate();
+        repaint();
+    }
+
+
+    /** Returns the panes in this window, in no particular order. */
+    public Java2DTextWindow[] getPanes() {
+        synchronized (cells) {
+            return cells.keySet().toArray(new Java2DTextWindow[cells.size()]);
+        }
+    }
+
+
+    private Rectangle getCells(Component scrollPane) {
+        Component pane = ((JScrollPane) scrollPane).getViewport().getView();
+        synchronized (cells) {
+            return cells.get(pane);
+        }
+    }
+
+
+    // positions each pane's scroll pane according to its cell bounds
+    private class CellLayout implements LayoutManager {
+        public void addLayoutComponent(String name, Component comp) { }
+
+
+        public void removeLayoutComponent(Component comp) { }
+
+
+        public Dimension preferredLayoutSize(Container parent) {
+            int columns = 0;
+            int rows = 0;
+            Component[] children = parent.getComponents();
+            for (int i = 0; i < children.length; i++) {
+                Rectangle r = getCells(children[i]);
+                if (r != null) {
+                    columns = Math.max(columns, r.x + r.width);
+                    rows = Math.max(rows, r.y + r.height);
+                }
+            }
+            return new Dimension(columns * cellSize.width, rows * cellSize.height);
+        }
+
+
+        public Dimension minimumLayoutSize(Container parent) {
+            return preferredLayoutSize(parent);
+        }
+
+
+        public void layoutContainer(Container parent) {
+            Component[] children = parent.getComponents();
+            for (int i = 0; i < children.length; i++) {
+                Rectangle r = getCells(children[i]);
+                if (r != null)
+                    children[i].setBounds(r.x * cellSize.width, r.y * cellSize.height,
+                                          r.width * cellSize.width, r.height * cellSize.height);
+            }
+        }
+    }
+}
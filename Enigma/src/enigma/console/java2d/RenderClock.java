@@ -0,0 +1,86 @@
+package enigma.console.java2d;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.Timer;
+
+/**
+ * Drives repainting and cursor blinking for one or more <code>Java2DTextWindows</code>.
+ * A standalone window has a clock of its own;  the panes of a
+ * {@link Java2DTiledWindow} share one, so that a single timer tick flushes the
+ * damage of every pane and Swing paints all of them in one pass.  Neither timer runs
+ * while there is nothing for it to do:  the repaint timer only after damage, and the
+ * cursor timer only while one of the windows is displayed with a visible cursor.
+ */
+class RenderClock {
+    private static final int REPAINT_DELAY = 15;
+
+    /**
+     * Milliseconds between checks of the windows' cursors;  each window blinks on its
+     * own schedule, so that restarting one cursor does not affect the others.
+     */
+    private static final int CURSOR_TICK = 50;
+
+    private final CopyOnWriteArrayList<Java2DTextWindow> windows = new CopyOnWriteArrayList<Java2DTextWindow>();
+
+    private final Timer cursorTimer = new Timer(CURSOR_TICK, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                long now = System.currentTimeMillis();
+                for (Java2DTextWindow window : windows)
+                    window.blinkCursor(now);
+            }
+        });
+
+    private final Timer repaintTimer = new Timer(REPAINT_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                for (Java2DTextWindow window : windows)
+                    window.flushRepaint();
+            }
+        });
+
+
+    RenderClock() {
+        repaintTimer.setRepeats(false);
+    }
+
+
+    void addWindow(Java2DTextWindow window) {
+        windows.addIfAbsent(window);
+        updateCursorTimer();
+    }
+
+
+    void removeWindow(Java2DTextWindow window) {
+        windows.remove(window);
+        updateCursorTimer();
+    }
+
+
+    /**
+     * Starts the cursor timer if any window has a cursor to blink, and stops it if
+     * none has.  Called whenever a window's cursor type changes or the window is
+     * added to or removed from a displayable hierarchy.
+     */
+    synchronized void updateCursorTimer() {
+        boolean blinking = false;
+        for (Java2DTextWindow window : windows) {
+            if (window.isCursorBlinking()) {
+                blinking = true;
+                break;
+            }
+        }
+        if (blinking && !cursorTimer.isRunning())
+            cursorTimer.start();
+        else if (!blinking && cursorTimer.isRunning())
+            cursorTimer.stop();
+    }
+
+
+    /** Schedules a repaint tick, unless one is already pending. */
+    void requestRepaint() {
+        if (!repaintTimer.isRunning())
+            repaintTimer.start();
+    }
+}
@@ -0,0 +1,64 @@
+package enigma.console.java2d;
+
+import enigma.console.TextAttributes;
+
+/**
+ * A fixed number of rows copied out of a <code>Java2DTextWindow's</code> row store,
+ * so that they can be processed without holding the window's lock.  The row arrays
+ * are reused from one copy to the next, and only reallocated if the window has become
+ * wider.
+ */
+class RowBuffer {
+    char[][] chars;
+    TextAttributes[][] attributes;
+
+    private final int capacity;
+    private long first;
+    private int count;
+    private int columns;
+
+
+    RowBuffer(int capacity) {
+        this.capacity = capacity;
+        chars = new char[capacity][0];
+        attributes = new TextAttributes[capacity][0];
+    }
+
+
+    /** Returns the maximum number of rows this buffer holds. */
+    int getCapacity() {
+        return capacity;
+    }
+
+
+    /** Returns the absolute index of the first row in the buffer. */
+    long getFirst() {
+        return first;
+    }
+
+
+    /** Returns the number of rows currently in the buffer. */
+    int getCount() {
+        return count;
+    }
+
+
+    /** Returns the width of the rows currently in the buffer. */
+    int getColumns() {
+        return columns;
+    }
+
+
+    // prepares to receive count rows of the specified width
+    void reset(long first, int count, int columns) {
+        this.first = first;
+        this.count = count;
+        this.columns = columns;
+        if (chars[0].length < columns) {
+            for (int i = 0; i < capacity; i++) {
+                chars[i] = new char[columns];
+                attributes[i] = new TextAttributes[columns];
+            }
+        }
+    }
+}
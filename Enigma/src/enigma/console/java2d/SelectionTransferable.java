@@ -0,0 +1,289 @@
+package enigma.console.java2d;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A range of text selected in a <code>Java2DTextWindow</code>, which doubles as the
+ * clipboard contents when the selection is copied.  Only the selection's bounds are
+ * stored, as absolute row indices and columns:  the text of rows in the scrollback,
+ * which never change, is read from the window when it is requested, a few rows at a
+ * time, so selecting or copying even the entire scrollback takes time and memory
+ * bounded by the size of the screen.  Rows which have been discarded from the
+ * scrollback since the copy are omitted.  The rows which were on the screen when the
+ * selection was copied are copied out of the window at that moment, since output may
+ * still change them.
+ *
+ * <p>The text is offered both as a <code>String</code> and, so that a recipient can
+ * process it without materializing it all at once, as a <code>Reader</code>.  Rows are
+ * separated by <code>'\n'</code>, and trailing spaces are removed from each row.</p>
+ */
+class SelectionTransferable implements Transferable {
+    /** Number of rows copied out of the window at a time. */
+    private static final int CHUNK_ROWS = 64;
+
+    /** Plain text delivered as a <code>java.io.Reader</code>. */
+    static final DataFlavor READER_FLAVOR;
+    static {
+        try {
+            READER_FLAVOR = new DataFlavor("text/plain;class=java.io.Reader");
+        }
+        catch (ClassNotFoundException e) {
+            throw new Error(e.toString()); // java.io.Reader is always available
+        }
+    }
+
+    private final Java2DTextWindow window;
+    private final long firstRow;
+    private final int firstColumn;
+    private final long lastRow;
+    private final int lastColumn;
+    private final boolean rectangular;
+    private final boolean alternate;
+
+    /** The selected rows which were on the screen when the selection was copied, or <code>null</code>. */
+    private final RowBuffer screenRows;
+
+
+    /**
+     * Creates a selection.  Columns are cell boundaries, so a linear selection covers
+     * the cells from <code>(firstColumn, firstRow)</code> up to but not including
+     * <code>(lastColumn, lastRow)</code>, and a rectangular selection covers columns
+     * <code>firstColumn</code> to <code>lastColumn - 1</code> of every row from
+     * <code>firstRow</code> to <code>lastRow</code>.  The two corners may be given in
+     * either order.
+     *
+     *@param alternate <code>true</code> if the rows are those of the alternate screen
+     */
+    SelectionTransferable(Java2DTextWindow window, long anchorRow, int anchorColumn, long endRow, int endColumn,
+            boolean rectangular, boolean alternate) {
+        this.window = window;
+        this.rectangular = rectangular;
+        this.alternate = alternate;
+        this.screenRows = null;
+        if (rectangular) {
+            firstRow = Math.min(anchorRow, endRow);
+            lastRow = Math.max(anchorRow, endRow);
+            firstColumn = Math.min(anchorColumn, endColumn);
+            lastColumn = Math.max(anchorColumn, endColumn);
+        }
+        else if (anchorRow < endRow || (anchorRow == endRow && anchorColumn <= endColumn)) {
+            firstRow = anchorRow;
+            firstColumn = anchorColumn;
+            lastRow = endRow;
+            lastColumn = endColumn;
+        }
+        else {
+            firstRow = endRow;
+            firstColumn = endColumn;
+            lastRow = anchorRow;
+            lastColumn = anchorColumn;
+        }
+    }
+
+
+    // creates a copy of a selection which takes the specified rows from screenRows
+    private SelectionTransferable(SelectionTransferable selection, RowBuffer screenRows) {
+        window = selection.window;
+        firstRow = selection.firstRow;
+        firstColumn = selection.firstColumn;
+        lastRow = selection.lastRow;
+        lastColumn = selection.lastColumn;
+        rectangular = selection.rectangular;
+        alternate = selection.alternate;
+        this.screenRows = screenRows;
+    }
+
+
+    /**
+     * Returns a copy of this selection in which the selected rows from
+     * <code>screenStart</code> on, which output may still change, have been copied out
+     * of the window, or this selection if it has none of them.  Called when the
+     * selection is copied, with the window's lock held.
+     *
+     *@param screenStart the absolute index of the first row on the screen
+     */
+    SelectionTransferable copyScreenRows(long screenStart) {
+        if (alternate || lastRow < screenStart)
+            return this;
+        long first = Math.max(firstRow, screenStart);
+        RowBuffer buffer = new RowBuffer((int) (lastRow - first + 1));
+        window.copyRows(first, lastRow + 1, buffer);
+        return new SelectionTransferable(this, buffer);
+    }
+
+
+    /** Returns the absolute index of the first row the selection touches. */
+    long getFirstRow() {
+        return firstRow;
+    }
+
+
+    /** Returns the absolute index of the last row the selection touches. */
+    long getLastRow() {
+        return lastRow;
+    }
+
+
+    /** Returns <code>true</code> if the selection was made on the alternate screen. */
+    boolean isAlternate() {
+        return alternate;
+    }
+
+
+    /** Returns <code>true</code> if the selection covers no cells at all. */
+    boolean isEmpty() {
+        return firstColumn == lastColumn && (rectangular || firstRow == lastRow);
+    }
+
+
+    /**
+     * Computes the selected cells of a row, storing the first column in
+     * <code>span[0]</code> and the column following the last in <code>span[1]</code>.
+     *
+     *@param row the absolute index of the row
+     *@param columns the width of the row
+     *@return <code>false</code> if none of the row is selected
+     */
+    boolean getSpan(long row, int columns, int[] span) {
+        if (row < firstRow || row > lastRow)
+            return false;
+        int start;
+        int end;
+        if (rectangular) {
+            start = firstColumn;
+            end = lastColumn;
+        }
+        else {
+            start = row == firstRow ? firstColumn : 0;
+            end = row == lastRow ? lastColumn : columns;
+        }
+        start = Math.min(start, columns);
+        end = Math.min(end, columns);
+        span[0] = start;
+        span[1] = end;
+        return start < end;
+    }
+
+
+    /** Reads the selected text into a <code>String</code>. */
+    String getText() {
+        StringBuffer result = new StringBuffer();
+        Reader in = new SelectionReader();
+        char[] buffer = new char[8192];
+        try {
+            int count;
+            while ((count = in.read(buffer, 0, buffer.length)) != -1)
+                result.append(buffer, 0, count);
+        }
+        catch (IOException e) {
+            throw new Error(e.toString()); // SelectionReader does not throw once open
+        }
+        return result.toString();
+    }
+
+
+    public DataFlavor[] getTransferDataFlavors() {
+        return new DataFlavor[] { DataFlavor.stringFlavor, READER_FLAVOR };
+    }
+
+
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        return flavor.equals(DataFlavor.stringFlavor) || flavor.equals(READER_FLAVOR);
+    }
+
+
+    public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+        if (flavor.equals(DataFlavor.stringFlavor))
+            return getText();
+        if (flavor.equals(READER_FLAVOR))
+            return new SelectionReader();
+        throw new UnsupportedFlavorException(flavor);
+    }
+
+
+    // reads the selected text row by row, copying CHUNK_ROWS rows out of the window at a
+    // time until it reaches the rows copied from the screen, if there are any
+    private class SelectionReader extends Reader {
+        private final RowBuffer buffer = new RowBuffer(CHUNK_ROWS);
+        private RowBuffer rows = buffer; // the rows being read
+        private final int[] span = new int[2];
+        private long nextRow = firstRow; // the next row to be copied out of the window
+        private int rowIndex;            // the next row of the buffer to be read
+        private char[] line = new char[0];
+        private int lineLength;
+        private int linePosition;
+        private boolean started;
+        private boolean closed;
+
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (closed)
+                throw new IOException("reader is closed");
+            if (off < 0 || len < 0 || off + len > cbuf.length)
+                throw new IndexOutOfBoundsException();
+            int count = 0;
+            while (count < len) {
+                if (linePosition == lineLength && !nextLine())
+                    break;
+                int n = Math.min(len - count, lineLength - linePosition);
+                System.arraycopy(line, linePosition, cbuf, off + count, n);
+                linePosition += n;
+                count += n;
+            }
+            return count == 0 && len > 0 ? -1 : count;
+        }
+
+
+        public void close() {
+            closed = true;
+        }
+
+
+        // formats the next row, preceded by a separator if it is not the first, into line
+        private boolean nextLine() {
+            while (rowIndex == rows.getCount()) {
+                if (nextRow > lastRow)
+                    return false;
+                if (screenRows != null && nextRow >= screenRows.getFirst())
+                    rows = screenRows;
+                else {
+                    long limit = screenRows != null ? screenRows.getFirst() : lastRow + 1;
+                    window.copyRows(nextRow, limit, buffer, alternate);
+                    rows = buffer;
+                    if (rows.getCount() == 0) { // the rest of the scrollback rows have been discarded
+                        if (screenRows == null)
+                            return false;
+                        nextRow = limit;
+                        continue;
+                    }
+                }
+                rowIndex = 0;
+                nextRow = rows.getFirst() + rows.getCount();
+            }
+            long row = rows.getFirst() + rowIndex;
+            char[] chars = rows.chars[rowIndex++];
+            int start = 0;
+            int end = 0;
+            if (getSpan(row, rows.getColumns(), span)) {
+                start = span[0];
+                end = span[1];
+                while (end > start && chars[end - 1] == ' ')
+                    end--;
+            }
+            if (line.length < rows.getColumns() + 1)
+                line = new char[rows.getColumns() + 1];
+            lineLength = 0;
+            if (started)
+                line[lineLength++] = '\n';
+            started = true;
+            System.arraycopy(chars, start, line, lineLength, end - start);
+            lineLength += end - start;
+            linePosition = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package enigma.console.java2d;
+
+import java.util.Arrays;
+
+import enigma.console.TextAttributes;
+
+/**
+ * A rectangular plane of characters drawn above the text grid of a
+ * <code>Java2DTextWindow</code>.  Layers are useful for HUDs, popups, sprites and
+ * other overlays which would otherwise have to overwrite the grid and then redraw
+ * whatever was underneath.  The grid itself is never modified by a layer;  instead
+ * layers are composited over the grid, in increasing z order, as the window paints.
+ *
+ * <p>Each cell of a layer is either opaque (it has a character and
+ * <code>TextAttributes</code>) or transparent, in which case whatever lies beneath
+ * it shows through.  A newly-created layer is entirely transparent.  Layer
+ * coordinates are screen coordinates, like those of
+ * {@link Java2DTextWindow#setCursorPosition}, so layers stay put while the
+ * window scrolls.</p>
+ *
+ * <p>Layers are created with {@link Java2DTextWindow#createLayer} and share the
+ * window's lock, so they may be updated from any thread.  Changing a layer only
+ * damages the cells it touched;  moving a layer damages its old and new bounds.</p>
+ *
+ *@status.experimental
+ *@see Java2DTextWindow
+ */
+public class TextLayer {
+    private final Java2DTextWindow window;
+    private final int columns;
+    private final int rows;
+    private final int z;
+
+    private final char[][] chars;                // [rows][columns]
+    private final TextAttributes[][] attributes; // [rows][columns], null where transparent
+
+    private int x;
+    private int y;
+    private boolean visible = true;
+
+
+    TextLayer(Java2DTextWindow window, int columns, int rows, int z) {
+        if (columns <= 0 || rows <= 0)
+            throw new IllegalArgumentException("layer must be at least one cell in size");
+        this.window = window;
+        this.columns = columns;
+        this.rows = rows;
+        this.z = z;
+        chars = new char[rows][columns];
+        attributes = new TextAttributes[rows][columns];
+    }
+
+
+    /** Returns the window to which this layer belongs. */
+    public Java2DTextWindow getWindow() {
+        return window;
+    }
+
+
+    /** Returns the width of this layer in columns. */
+    public int getColumns() {
+        return columns;
+    }
+
+
+    /** Returns the height of this layer in rows. */
+    public int getRows() {
+        return rows;
+    }
+
+
+    /**
+     * Returns the z order of this layer.  Layers with higher z orders are drawn
+     * above those with lower z orders.
+     */
+    public int getZOrder() {
+        return z;
+    }
+
+
+    /** Returns the screen column of this layer's left edge. */
+    public int getX() {
+        synchronized (window) {
+            return x;
+        }
+    }
+
+
+    /** Returns the screen row of this layer's top edge. */
+    public int getY() {
+        synchronized (window) {
+            return y;
+        }
+    }
+
+
+    /**
+     * Moves this layer so that its top left cell is at the specified screen position.
+     * The layer may extend partially or entirely outside of the window.
+     *
+     *@param x the new screen column of the layer's left edge
+     *@param y the new screen row of the layer's top edge
+     */
+    public void setLocation(int x, int y) {
+        synchronized (window) {
+            if (x == this.x && y == this.y)
+                return;
+            damage();
+            this.x = x;
+            this.y = y;
+            damage();
+        }
+    }
+
+
+    /** Returns <code>true</code> if this layer is currently drawn. */
+    public boolean isVisible() {
+        synchronized (window) {
+            return visible;
+        }
+    }
+
+
+    /**
+     * Shows or hides this layer.  A hidden layer retains its contents.
+     *
+     *@param visible <code>true</code> to draw the layer, <code>false</code> to hide it
+     */
+    public void setVisible(boolean visible) {
+        synchronized (window) {
+            if (visible == this.visible)
+                return;
+            this.visible = visible;
+            window.repaintScreenCells(x, y, columns, rows);
+        }
+    }
+
+
+    /**
+     * Places an opaque character in this layer.
+     *
+     *@param x the column, relative to the layer, in which to place the character
+     *@param y the row, relative to the layer, in which to place the character
+     *@param c the character to place
+     *@param attributes the <code>TextAttributes</code> with which to render the character
+     *@throws NullPointerException if <code>attributes</code> is <code>null</code>
+     *@throws IndexOutOfBoundsException if the position lies outside of the layer
+     */
+    public void output(int x, int y, char c, TextAttributes attributes) {
+        if (attributes == null)
+            throw new NullPointerException("attributes may not be null");
+        synchronized (window) {
+            chars[y][x] = c;
+            this.attributes[y][x] = attributes;
+            if (visible)
+                window.repaintScreenCells(this.x + x, this.y + y, 1, 1);
+        }
+    }
+
+
+    /**
+     * Places a string of opaque characters in this layer, starting at the specified
+     * position.  Characters which would fall beyond the right edge of the layer are
+     * discarded.
+     *
+     *@param x the column, relative to the layer, of the first character
+     *@param y the row, relative to the layer, of the characters
+     *@param s the characters to place
+     *@param attributes the <code>TextAttributes</code> with which to render the characters
+     *@throws NullPointerException if <code>attributes</code> is <code>null</code>
+     *@throws IndexOutOfBoundsException if the starting position lies outside of the layer
+     */
+    public void output(int x, int y, String s, TextAttributes attributes) {
+        if (attributes == null)
+            throw new NullPointerException("attributes may not be null");
+        synchronized (window) {
+            int end = Math.min(columns, x + s.length());
+            if (x < 0 || x >= columns)
+                throw new IndexOutOfBoundsException("x = " + x);
+            s.getChars(0, end - x, chars[y], x);
+            Arrays.fill(this.attributes[y], x, end, attributes);
+            if (visible)
+                window.repaintScreenCells(this.x + x, this.y + y, end - x, 1);
+        }
+    }
+
+
+    /**
+     * Makes the specified cell transparent.
+     *
+     *@param x the column, relative to the layer, of the cell
+     *@param y the row, relative to the layer, of the cell
+     *@throws IndexOutOfBoundsException if the position lies outside of the layer
+     */
+    public void clear(int x, int y) {
+        synchronized (window) {
+            attributes[y][x] = null;
+            if (visible)
+                window.repaintScreenCells(this.x + x, this.y + y, 1, 1);
+        }
+    }
+
+
+    /** Makes every cell of this layer transparent. */
+    public void clear() {
+        synchronized (window) {
+            for (int i = 0; i < rows; i++)
+                Arrays.fill(attributes[i], null);
+            damage();
+        }
+    }
+
+
+    /**
+     * Removes this layer from its window.  A removed layer may still be modified,
+     * but is no longer drawn.
+     */
+    public void dispose() {
+        window.removeLayer(this);
+    }
+
+
+    private void damage() {
+        //assert Thread.holdsLock(window);
+        if (visible)
+            window.repaintScreenCells(x, y, columns, rows);
+    }
+
+
+    // copies this layer's opaque cells which fall on the specified screen row and
+    // column range over the given row buffers, which are indexed by column
+    void composite(int screenRow, int startColumn, int endColumn, char[] rowChars, TextAttributes[] rowAttributes) {
+        //assert Thread.holdsLock(window);
+        int layerRow = screenRow - y;
+        if (!visible || layerRow < 0 || layerRow >= rows)
+            return;
+        char[] layerChars = chars[layerRow];
+        TextAttributes[] layerAttributes = attributes[layerRow];
+        int start = Math.max(startColumn, x);
+        int end = Math.min(endColumn, x + columns);
+        for (int i = start; i < end; i++) {
+            TextAttributes a = layerAttributes[i - x];
+            if (a != null) {
+                rowChars[i] = layerChars[i - x];
+                rowAttributes[i] = a;
+            }
+        }
+    }
+
+
+    // returns true if this layer is visible and covers any part of the specified screen row
+    boolean coversRow(int screenRow) {
+        return visible && screenRow >= y && screenRow < y + rows;
+    }
+}
@@ -0,0 +1,258 @@
+package enigma.console.java2d;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+
+import enigma.console.TextAttributes;
+import enigma.core.Enigma;
+
+/**
+ * Writes the entire history of a <code>Java2DTextWindow</code>, scrollback included,
+ * as plain text, HTML or text with ANSI escape sequences.
+ *
+ * <p>The window's rows are copied into a small, fixed-size buffer a few at a time, so
+ * exporting a very long history needs no more memory than exporting a short one, and
+ * programs writing to the window are only held up while each handful of rows is
+ * copied.  The export covers the rows which existed when it began;  rows which scroll
+ * out of the window's scrollback before the export reaches them are skipped, and
+ * output which arrives later is not included.  Trailing blank rows are omitted.</p>
+ *
+ * <p>HTML output is a single <code>&lt;pre&gt;</code> element in which a new
+ * <code>&lt;span&gt;</code> is started only where the text attributes change, and
+ * ANSI output likewise emits an escape sequence only at attribute changes, using
+ * 24-bit color.</p>
+ *
+ *@status.experimental
+ *@see enigma.shells.commandline.commands.Export
+ */
+public class TextWindowExporter {
+    /** Export format:  plain text, with trailing spaces removed. */
+    public static final int TEXT = 0;
+
+    /** Export format:  an HTML document which preserves colors and styles. */
+    public static final int HTML = 1;
+
+    /** Export format:  text with ANSI SGR escape sequences which preserve colors and styles. */
+    public static final int ANSI = 2;
+
+    /** Number of rows copied out of the window at a time. */
+    private static final int CHUNK_ROWS = 64;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Java2DTextWindow window;
+    private final int format;
+
+    private TextAttributes defaultAttributes;
+    private TextAttributes current; // attributes in effect in the output so far
+
+
+    /**
+     * Creates an exporter for the specified window.
+     *
+     *@param window the window whose history is to be exported
+     *@param format one of <code>TEXT</code>, <code>HTML</code> or <code>ANSI</code>
+     *@throws IllegalArgumentException if the format is not valid
+     */
+    public TextWindowExporter(Java2DTextWindow window, int format) {
+        if (format != TEXT && format != HTML && format != ANSI)
+            throw new IllegalArgumentException("invalid format: " + format);
+        this.window = window;
+        this.format = format;
+    }
+
+
+    /**
+     * Writes the window's history to the specified <code>Writer</code>, which should
+     * normally be buffered.  The <code>Writer</code> is not closed.
+     *
+     *@param out the destination
+     *@throws IOException if an I/O error occurs
+     */
+    public void export(Writer out) throws IOException {
+        defaultAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
+        current = defaultAttributes;
+        RowBuffer buffer = new RowBuffer(CHUNK_ROWS);
+        long next = 0;
+        long limit = window.getRowLimit();
+        int blankRows = 0;
+        begin(out);
+        while (next < limit) {
+            window.copyRows(next, limit, buffer);
+            int count = buffer.getCount();
+            if (count == 0)
+                break;
+            for (int i = 0; i < count; i++) {
+                char[] chars = buffer.chars[i];
+                TextAttributes[] attributes = buffer.attributes[i];
+                int length = getTrimmedLength(chars, attributes, buffer.getColumns());
+                if (length == 0)
+                    blankRows++; // written only if a non-blank row follows
+                else {
+                    for (; blankRows > 0; blankRows--)
+                        endLine(out);
+                    writeRow(out, chars, attributes, length);
+                    endLine(out);
+                }
+            }
+            next = buffer.getFirst() + count;
+        }
+        end(out);
+        out.flush();
+    }
+
+
+    // returns the length of the row, ignoring trailing cells which would look blank
+    private int getTrimmedLength(char[] chars, TextAttributes[] attributes, int columns) {
+        Color background = defaultAttributes.getBackground();
+        int length = columns;
+        while (length > 0) {
+            TextAttributes a = attributes[length - 1];
+            if (chars[length - 1] != ' ' || (a != null && (!a.getDisplayBackground().equals(background) ||
+                    (a.getStyle() & (TextAttributes.UNDERLINE | TextAttributes.STRIKETHROUGH)) != 0)))
+                break;
+            length--;
+        }
+        return length;
+    }
+
+
+    private void writeRow(Writer out, char[] chars, TextAttributes[] attributes, int length) throws IOException {
+        if (format == TEXT) {
+            out.write(chars, 0, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            TextAttributes a = attributes[i] != null ? attributes[i] : defaultAttributes;
+            if (a != current && !a.equals(current)) {
+                if (format == HTML)
+                    writeHtmlSpan(out, a);
+                else
+                    writeAnsiAttributes(out, a);
+                current = a;
+            }
+            char c = chars[i];
+            if (format != HTML)
+                out.write(c);
+            else if (c == '<')
+                out.write("&lt;");
+            else if (c == '>')
+                out.write("&gt;");
+            else if (c == '&')
+                out.write("&amp;");
+            else if (c > 127) { // as a character reference, so that the document's encoding does not matter
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1]))
+                    codePoint = Character.toCodePoint(c, chars[++i]);
+                else if (Character.isSurrogate(c))
+                    codePoint = 0xFFFD; // an unpaired surrogate has no character to refer to
+                out.write("&#");
+                out.write(Integer.toString(codePoint));
+                out.write(';');
+            }
+            else
+                out.write(c);
+        }
+    }
+
+
+    private void begin(Writer out) throws IOException {
+        if (format == HTML) {
+            out.write("<html>");
+            out.write(LINE_SEPARATOR);
+            out.write("<body style=\"background-color:");
+            writeHtmlColor(out, defaultAttributes.getBackground());
+            out.write("; color:");
+            writeHtmlColor(out, defaultAttributes.getForeground());
+            out.write("\"><pre>");
+        }
+    }
+
+
+    private void endLine(Writer out) throws IOException {
+        if (format == ANSI && !current.equals(defaultAttributes)) {
+            out.write("\033[0m"); // keep each line self-contained
+            current = defaultAttributes;
+        }
+        out.write(LINE_SEPARATOR);
+    }
+
+
+    private void end(Writer out) throws IOException {
+        if (format == HTML) {
+            if (!current.equals(defaultAttributes))
+                out.write("</span>");
+            out.write("</pre></body>");
+            out.write(LINE_SEPARATOR);
+            out.write("</html>");
+            out.write(LINE_SEPARATOR);
+        }
+    }
+
+
+    private void writeHtmlSpan(Writer out, TextAttributes a) throws IOException {
+        if (!current.equals(defaultAttributes))
+            out.write("</span>");
+        if (a.equals(defaultAttributes))
+            return;
+        out.write("<span style=\"color:");
+        writeHtmlColor(out, a.getDisplayForeground());
+        if (!a.getDisplayBackground().equals(defaultAttributes.getBackground())) {
+            out.write("; background-color:");
+            writeHtmlColor(out, a.getDisplayBackground());
+        }
+        if (a.hasStyle(TextAttributes.BOLD))
+            out.write("; font-weight:bold");
+        int lines = a.getStyle() & (TextAttributes.UNDERLINE | TextAttributes.STRIKETHROUGH);
+        if (lines == TextAttributes.UNDERLINE)
+            out.write("; text-decoration:underline");
+        else if (lines == TextAttributes.STRIKETHROUGH)
+            out.write("; text-decoration:line-through");
+        else if (lines != 0)
+            out.write("; text-decoration:underline line-through");
+        out.write("\">");
+    }
+
+
+    private void writeHtmlColor(Writer out, Color color) throws IOException {
+        int rgb = color.getRGB();
+        out.write('#');
+        for (int shift = 20; shift >= 0; shift -= 4)
+            out.write(HEX[(rgb >> shift) & 0xF]);
+    }
+
+
+    private void writeAnsiAttributes(Writer out, TextAttributes a) throws IOException {
+        out.write("\033[0");
+        if (!a.equals(defaultAttributes)) {
+            writeAnsiColor(out, "38", a.getForeground());
+            writeAnsiColor(out, "48", a.getBackground());
+            int style = a.getStyle();
+            if ((style & TextAttributes.BOLD) != 0)
+                out.write(";1");
+            if ((style & TextAttributes.DIM) != 0)
+                out.write(";2");
+            if ((style & TextAttributes.UNDERLINE) != 0)
+                out.write(";4");
+            if ((style & TextAttributes.INVERSE) != 0)
+                out.write(";7");
+            if ((style & TextAttributes.STRIKETHROUGH) != 0)
+                out.write(";9");
+        }
+        out.write('m');
+    }
+
+
+    private void writeAnsiColor(Writer out, String parameter, Color color) throws IOException {
+        out.write(';');
+        out.write(parameter);
+        out.write(";2;");
+        out.write(Integer.toString(color.getRed()));
+        out.write(';');
+        out.write(Integer.toString(color.getGreen()));
+        out.write(';');
+        out.write(Integer.toString(color.getBlue()));
+    }
+}
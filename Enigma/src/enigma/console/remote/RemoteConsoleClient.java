@@ -95,8 +95,8 @@ public class RemoteConsoleClient {
             case 'P': remoteServerOut.write((console.readPassword() + "\n").getBytes()); 
                       remoteServerOut.flush();
                       break;
-            case 'F': console.setTextAttributes(new TextAttributes(readColor(), console.getTextAttributes().getBackground())); break;
-            case 'B': console.setTextAttributes(new TextAttributes(console.getTextAttributes().getForeground(), readColor())); break;
+            case 'F': console.setTextAttributes(TextAttributes.getInstance(readColor(), console.getTextAttributes().getBackground())); break;
+            case 'B': console.setTextAttributes(TextAttributes.getInstance(console.getTextAttributes().getForeground(), readColor())); break;
             case ESCAPE: System.out.write(ESCAPE);
         }
     }
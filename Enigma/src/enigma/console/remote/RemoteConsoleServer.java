@@ -1,6 +1,7 @@
 package enigma.console.remote;
 
 import java.awt.Color;
+import java.awt.event.KeyEvent;
 import java.io.BufferedReader;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -14,14 +15,18 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.GatheringByteChannel;
+import java.util.BitSet;
 
 import enigma.console.Console;
+import enigma.console.OutputSubscriber;
 import enigma.console.TextAttributes;
 import enigma.console.TextWindow;
 import enigma.console.TextWindowNotAvailableException;
 import enigma.core.Enigma;
 import enigma.core.VirtualMachine;
 import enigma.core.VirtualMachineConfiguration;
+import enigma.util.Flow;
 import enigma.util.Util;
 
 /** 
@@ -39,6 +44,7 @@ public class RemoteConsoleServer implements Console {
     private PrintStream outputStream;
     private BufferedReader reader;
     private PrintWriter writer;
+    private GatheringByteChannel channel;
     
     private boolean passwordMode;
     
@@ -95,6 +101,7 @@ public class RemoteConsoleServer implements Console {
         };
         
         outputStream = new PrintStream(remoteClientOut, true);
+        channel = new StreamChannel(outputStream);
         
         try {
             reader = new BufferedReader(new InputStreamReader(inputStream, "utf-8")) {
@@ -175,6 +182,11 @@ public class RemoteConsoleServer implements Console {
     }
     
     
+    public GatheringByteChannel getChannel() {
+        return channel;
+    }
+    
+    
     public boolean isTextWindowAvailable() {
         return false;
     }
@@ -190,6 +202,37 @@ public class RemoteConsoleServer implements Console {
     }
     
     
+    // the client only sends complete lines, so individual keys are not available
+    public KeyEvent pollKey() {
+        throw new UnsupportedOperationException("remote consoles do not receive key events");
+    }
+    
+    
+    public KeyEvent readKey(long timeout) {
+        throw new UnsupportedOperationException("remote consoles do not receive key events");
+    }
+    
+    
+    public boolean isKeyDown(int keyCode) {
+        throw new UnsupportedOperationException("remote consoles do not receive key events");
+    }
+    
+    
+    public BitSet getPressedKeys() {
+        throw new UnsupportedOperationException("remote consoles do not receive key events");
+    }
+    
+    
+    public Flow.Publisher<String> getLinePublisher() {
+        throw new UnsupportedOperationException("remote consoles only support blocking input");
+    }
+    
+    
+    public Flow.Subscriber<CharSequence> createOutputSubscriber() {
+        return new OutputSubscriber(writer);
+    }
+    
+    
     private String getColorCode(Color color) {
         return Integer.toString(color.getRed() >> 4, 16) +
                Integer.toString(color.getGreen() >> 4, 16) +
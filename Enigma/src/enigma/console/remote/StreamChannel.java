@@ -0,0 +1,69 @@
+package enigma.console.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The channel returned by {@link RemoteConsoleServer#getChannel}:  a gathering
+ * channel over the console's output stream.  The buffers of a gathering write are
+ * written while holding the stream's lock, so that output written to the stream by
+ * other threads does not come between them.  Closing the channel flushes it, but
+ * leaves the console and its output stream open.
+ */
+class StreamChannel implements GatheringByteChannel {
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private volatile boolean open = true;
+
+
+    StreamChannel(OutputStream out) {
+        this.out = out;
+        channel = Channels.newChannel(out);
+    }
+
+
+    public int write(ByteBuffer src) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        synchronized (out) {
+            return channel.write(src);
+        }
+    }
+
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > srcs.length)
+            throw new IndexOutOfBoundsException();
+        if (!open)
+            throw new ClosedChannelException();
+        long result = 0;
+        synchronized (out) { // keep the buffers together
+            for (int i = offset; i < offset + length; i++)
+                result += channel.write(srcs[i]);
+        }
+        return result;
+    }
+
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+
+    public boolean isOpen() {
+        return open;
+    }
+
+
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            out.flush();
+        }
+    }
+}
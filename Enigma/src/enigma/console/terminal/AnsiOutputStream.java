@@ -38,10 +38,49 @@ public class AnsiOutputStream extends FilterOutputStream {
                                             new Color(0, BRIGHT_LEVEL, BRIGHT_LEVEL),
                                             new Color(BRIGHT_LEVEL, BRIGHT_LEVEL, BRIGHT_LEVEL)
                                          };
+    
+    /** The xterm 256 color palette:  <code>COLORS</code>, a 6x6x6 color cube, and 24 grays. */
+    private static final Color[] EXTENDED_COLORS = new Color[256];
+    
+    static {
+        System.arraycopy(COLORS, 0, EXTENDED_COLORS, 0, COLORS.length);
+        int[] levels = { 0, 95, 135, 175, 215, 255 };
+        for (int i = 0; i < 216; i++)
+            EXTENDED_COLORS[16 + i] = new Color(levels[i / 36], levels[(i / 6) % 6], levels[i % 6]);
+        for (int i = 0; i < 24; i++) {
+            int level = 8 + i * 10;
+            EXTENDED_COLORS[232 + i] = new Color(level, level, level);
+        }
+    }
+    
+    /** Number of slots in each stream's cache of 24-bit colors;  must be a power of two. */
+    private static final int COLOR_CACHE_SIZE = 256;
+    
+    /** Direct-mapped cache of 24-bit colors, keyed by packed RGB. */
+    private final Color[] colorCache = new Color[COLOR_CACHE_SIZE];
+    
+    /** Number of slots in each stream's cache of attributes with extended colors;  must be a power of two. */
+    private static final int ATTRIBUTE_CACHE_SIZE = 256;
+    
+    /** 
+     * Direct-mapped cache of attributes with extended colors.  These are constructed
+     * rather than taken from <code>TextAttributes.getInstance</code>, whose palette is
+     * never evicted, so that a stream of distinct 24-bit colors uses a bounded amount
+     * of memory.
+     */
+    private final TextAttributes[] attributeCache = new TextAttributes[ATTRIBUTE_CACHE_SIZE];
                                          
     private boolean bright;
-    private int foreground;
+    private int foreground = 7;
     private int background;
+    
+    // colors selected by 38 and 48, which take precedence over foreground and background;
+    // null when an indexed color is selected
+    private Color extendedForeground;
+    private Color extendedBackground;
+    
+    /** Style flags selected by SGR parameters, as in <code>TextAttributes.getStyle()</code>. */
+    private int style;
                                          
     private static final int ESCAPE = '\033';
     
@@ -96,9 +135,15 @@ public class AnsiOutputStream extends FilterOutputStream {
      *@param index the offset within the byte array from which to begin reading the escape sequence
      */
     protected int processEscape(byte[] b, int index) {
+        return processEscape(b, index, b.length);
+    }
+    
+    
+    // as processEscape(byte[], int), but reads no further than end
+    private int processEscape(byte[] b, int index, int end) {
         int start = index;
         boolean complete = false; // we know we want at least one character, otherwise this method would not have been called
-        while (!complete && index < b.length) {
+        while (!complete && index < end) {
             escapeSequence.append((char) b[index++]);
             complete = tryToProcessEscapeSequence();
         }
@@ -117,15 +162,24 @@ public class AnsiOutputStream extends FilterOutputStream {
         
         switch (length) {
             case 0: return false;
-            case 1: return escapeSequence.charAt(0) != ESCAPE; // incomplete if ESCAPE, invalid otherwise
-            case 2: return escapeSequence.charAt(1) != '[';    // incomplete if '[', invalid otherwise
+            case 1: // fall through
+            case 2:
+                if (escapeSequence.charAt(length - 1) == (length == 1 ? ESCAPE : '['))
+                    return false; // incomplete
+                inEscape = false;
+                return true; // invalid escape
         }
         
         // else length >= 3
         
-        parameterStart = 2;
+        parameterStart = escapeSequence.charAt(2) == '?' ? 3 : 2; // skip private mode marker
         char last = escapeSequence.charAt(escapeSequence.length() - 1);
         switch (last) {
+            case '?':
+                if (length == 3)
+                    return false; // private mode marker, which is only valid immediately after '['
+                inEscape = false;
+                return true; // invalid escape
             case ';': // fall through
             case '0': // fall through
             case '1': // fall through
@@ -148,6 +202,9 @@ public class AnsiOutputStream extends FilterOutputStream {
             case 'K': inEscape = false;  processClearToEnd();             return true;
             case 'J': inEscape = false;  processClearScreen();            return true;
             case 'm': inEscape = false;  processColor();                  return true;
+            case 'r': inEscape = false;  processSetScrollRegion();        return true;
+            case 'h': inEscape = false;  processSetMode(true);            return true;
+            case 'l': inEscape = false;  processSetMode(false);           return true;
             
             default: inEscape = false;  return true; // invalid escape
         }
@@ -156,24 +213,32 @@ public class AnsiOutputStream extends FilterOutputStream {
     
         
     
+    // parses the parameter at parameterStart in place, without allocating, and advances past it;
+    // empty and malformed parameters yield defaultValue
     private int getNextParameter(int defaultValue) {
-        int length = escapeSequence.length();
-        if (parameterStart < length - 1) {
-            int end = escapeSequence.indexOf(";", parameterStart);
-            if (end == -1)
-                end = length - 1;
-            try {
-                return Integer.parseInt(escapeSequence.substring(parameterStart, end));
-            }
-            catch (NumberFormatException e) {
-                return defaultValue;
+        int end = escapeSequence.length() - 1; // final character is the command
+        if (parameterStart >= end)
+            return defaultValue;
+        int value = 0;
+        boolean valid = false;
+        int i = parameterStart;
+        for (; i < end; i++) {
+            char c = escapeSequence.charAt(i);
+            if (c == ';')
+                break;
+            if (c >= '0' && c <= '9' && value < 100000) {
+                value = value * 10 + (c - '0');
+                valid = true;
             }
-            finally {
-                parameterStart = end + 1;
+            else {
+                value = defaultValue;
+                valid = false;
+                for (; i < end && escapeSequence.charAt(i) != ';'; i++);
+                break;
             }
         }
-        else
-            return defaultValue;
+        parameterStart = i + 1;
+        return valid ? value : defaultValue;
     }
     
     
@@ -229,6 +294,30 @@ public class AnsiOutputStream extends FilterOutputStream {
     }
 
     
+    private void processSetScrollRegion() {
+        int rows = textWindow.getRows();
+        int top = getNextParameter(1) - 1; // parameters are 1-based rather than 0-based
+        int bottom = getNextParameter(rows) - 1;
+        if (top >= 0 && top < bottom && bottom < rows)
+            textWindow.setScrollRegion(top, bottom);
+        else
+            textWindow.clearScrollRegion();
+        textWindow.setCursorPosition(0, 0);
+    }
+
+    
+    private void processSetMode(boolean enable) {
+        if (parameterStart != 3) 
+            return; // only private modes are supported
+        int mode = getNextParameter(-1);
+        switch (mode) {
+            case 47:   // fall through
+            case 1047: // fall through
+            case 1049: textWindow.setAlternateScreen(enable); break;
+        }
+    }
+
+    
     private void processClearToEnd() {
         int x = textWindow.getCursorX();
         int y = textWindow.getCursorY();
@@ -259,35 +348,114 @@ public class AnsiOutputStream extends FilterOutputStream {
     
     
     private void processColor() {
-        int parameter = getNextParameter(-1);
-        while (parameter != -1) {
-            try {
+        int end = escapeSequence.length() - 1;
+        if (parameterStart >= end)
+            resetColor(); // ESC[m is equivalent to ESC[0m
+        while (parameterStart < end) {
+            int parameter = getNextParameter(-1); // malformed parameters are ignored
+            if (parameter >= 30 && parameter <= 37) {
+                foreground = parameter - 30;
+                extendedForeground = null;
+            }
+            else if (parameter >= 40 && parameter <= 47) {
+                background = parameter - 40;
+                extendedBackground = null;
+            }
+            else if (parameter >= 90 && parameter <= 97) {
+                foreground = parameter - 90 + 8;
+                extendedForeground = null;
+            }
+            else if (parameter >= 100 && parameter <= 107) {
+                background = parameter - 100 + 8;
+                extendedBackground = null;
+            }
+            else {
                 switch (parameter) {
-                    case 0: bright = false; foreground = 7; background = 0; break;
-                    case 1: bright = true; break;
-                    case 30: foreground =  0; break;
-                    case 31: foreground =  1; break;
-                    case 32: foreground =  2; break;
-                    case 33: foreground =  3; break;
-                    case 34: foreground =  4; break;
-                    case 35: foreground =  5; break;
-                    case 36: foreground =  6; break;
-                    case 37: foreground =  7; break;
-                    case 40: background =  0; break;
-                    case 41: background =  1; break;
-                    case 42: background =  2; break;
-                    case 43: background =  3; break;
-                    case 44: background =  4; break;
-                    case 45: background =  5; break;
-                    case 46: background =  6; break;
-                    case 47: background =  7; break;
+                    case 0: resetColor(); break;
+                    case 1: bright = true; style |= TextAttributes.BOLD; break;
+                    case 2: style |= TextAttributes.DIM; break;
+                    case 4: style |= TextAttributes.UNDERLINE; break;
+                    case 7: style |= TextAttributes.INVERSE; break;
+                    case 9: style |= TextAttributes.STRIKETHROUGH; break;
+                    case 22: bright = false; style &= ~(TextAttributes.BOLD | TextAttributes.DIM); break;
+                    case 24: style &= ~TextAttributes.UNDERLINE; break;
+                    case 27: style &= ~TextAttributes.INVERSE; break;
+                    case 29: style &= ~TextAttributes.STRIKETHROUGH; break;
+                    case 38: extendedForeground = getExtendedColor(extendedForeground); break;
+                    case 39: foreground = 7; extendedForeground = null; break;
+                    case 48: extendedBackground = getExtendedColor(extendedBackground); break;
+                    case 49: background = 0; extendedBackground = null; break;
                 }
             }
-            catch (NumberFormatException e) { return; }
-            parameter = getNextParameter(-1);
         }
-        console.setTextAttributes(new TextAttributes(COLORS[foreground + (bright ? 8 : 0)],
-                                             COLORS[background]));
+        Color fg = extendedForeground;
+        if (fg == null)
+            fg = COLORS[bright && foreground < 8 ? foreground + 8 : foreground];
+        Color bg = extendedBackground;
+        if (bg == null)
+            bg = COLORS[background];
+        if (extendedForeground == null && extendedBackground == null)
+            console.setTextAttributes(TextAttributes.getInstance(fg, bg, style));
+        else
+            console.setTextAttributes(getExtendedAttributes(fg, bg, style));
+    }
+    
+    
+    // returns attributes with the specified colors from the stream's own cache, creating
+    // them only on a cache miss
+    private TextAttributes getExtendedAttributes(Color fg, Color bg, int style) {
+        int h = ((fg.getRGB() * 31 + bg.getRGB()) * 31 + style) * 0x9E3779B1;
+        int slot = (h ^ (h >>> 16)) & (ATTRIBUTE_CACHE_SIZE - 1);
+        TextAttributes result = attributeCache[slot];
+        if (result == null || result.getStyle() != style || result.getForeground().getRGB() != fg.getRGB() ||
+                result.getBackground().getRGB() != bg.getRGB()) {
+            result = new TextAttributes(fg, bg, style);
+            attributeCache[slot] = result;
+        }
+        return result;
+    }
+    
+    
+    private void resetColor() {
+        bright = false;
+        foreground = 7;
+        background = 0;
+        extendedForeground = null;
+        extendedBackground = null;
+        style = 0;
+    }
+    
+    
+    // reads the remainder of a 38 or 48 parameter:  either 5;n (256 color palette) or
+    // 2;r;g;b (24-bit color).  Returns current if the parameters are invalid.
+    private Color getExtendedColor(Color current) {
+        switch (getNextParameter(-1)) {
+            case 5:
+                int index = getNextParameter(-1);
+                return index >= 0 && index < EXTENDED_COLORS.length ? EXTENDED_COLORS[index] : current;
+            case 2:
+                int r = getNextParameter(-1);
+                int g = getNextParameter(-1);
+                int b = getNextParameter(-1);
+                if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255)
+                    return current;
+                return getColor((r << 16) | (g << 8) | b);
+            default:
+                return current;
+        }
+    }
+    
+    
+    // returns a shared Color for the specified packed RGB value, allocating only on a cache miss
+    private Color getColor(int rgb) {
+        int h = rgb * 0x9E3779B1;
+        int slot = (h ^ (h >>> 16)) & (COLOR_CACHE_SIZE - 1);
+        Color result = colorCache[slot];
+        if (result == null || (result.getRGB() & 0xFFFFFF) != rgb) {
+            result = new Color(rgb);
+            colorCache[slot] = result;
+        }
+        return result;
     }
     
     
@@ -300,17 +468,18 @@ public class AnsiOutputStream extends FilterOutputStream {
         int index = off;
         int end = off + len;
         while (index < end) {
-            if (!inEscape && b[index] == ESCAPE && (index == len - 1 || b[index + 1] == '[')) {
+            if (!inEscape && b[index] == ESCAPE && (index == end - 1 || b[index + 1] == '[')) {
                 inEscape = true; // we may or may not have seen the bracket yet
                 escapeSequence.setLength(0);
+                out.flush(); // the console buffers output, and escapes act on the window directly
             }
                 
             if (inEscape)
-                index += processEscape(b, index);
+                index += processEscape(b, index, end);
             else {
                 int start = index;
-                for (; index < len && b[index] != ESCAPE; index++); // advance to next ESCAPE (or end of string)
-                super.write(b, start, index - start); // output characters.  escape will be processed on next iteration
+                for (; index < end && b[index] != ESCAPE; index++); // advance to next ESCAPE (or end of string)
+                out.write(b, start, index - start); // output characters.  escape will be processed on next iteration
             }
         }
     }
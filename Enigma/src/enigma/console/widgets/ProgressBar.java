@@ -0,0 +1,102 @@
+package enigma.console.widgets;
+
+import enigma.console.TextWindow;
+import enigma.core.Enigma;
+
+/**
+ * A one-row progress bar with a percentage, drawn as <code>[#######     ]  58%</code>.
+ * Setting the value only touches the window when the number of filled cells or the
+ * displayed percentage actually changes, and then only the cells which differ, so a
+ * bar may be updated as often as is convenient, for instance once per block copied.
+ *
+ *@status.experimental
+ */
+public class ProgressBar extends Widget {
+    private static final int PERCENT_WIDTH = 5; // " 100%"
+
+    private long value;
+    private long maximum;
+
+    // what is currently shown, to skip repaints which would change nothing
+    private int filled = -1;
+    private int percent = -1;
+
+
+    /**
+     * Creates a progress bar, initially empty, with a maximum of 100.
+     *
+     *@param window the window in which to display the bar
+     *@param x the column of the bar's left edge
+     *@param y the row of the bar
+     *@param width the total width of the bar, including brackets and percentage
+     */
+    public ProgressBar(TextWindow window, int x, int y, int width) {
+        super(window, x, y, width, 1);
+        maximum = 100;
+    }
+
+
+    /** Returns the current value. */
+    public synchronized long getValue() {
+        return value;
+    }
+
+
+    /**
+     * Sets the current value, which is clamped to the range zero to the maximum.
+     *
+     *@param value the new value
+     */
+    public synchronized void setValue(long value) {
+        this.value = Math.max(0, Math.min(value, maximum));
+        update();
+    }
+
+
+    /** Returns the value at which the bar is full. */
+    public synchronized long getMaximum() {
+        return maximum;
+    }
+
+
+    /**
+     * Sets the value at which the bar is full.
+     *
+     *@param maximum the new maximum
+     *@throws IllegalArgumentException if <code>maximum</code> is not positive
+     */
+    public synchronized void setMaximum(long maximum) {
+        if (maximum <= 0)
+            throw new IllegalArgumentException("maximum must be positive: " + maximum);
+        this.maximum = maximum;
+        this.value = Math.min(value, maximum);
+        update();
+    }
+
+
+    private int getBarWidth() {
+        return Math.max(0, getWidth() - 2 - PERCENT_WIDTH);
+    }
+
+
+    private void update() {
+        double fraction = (double) value / maximum;
+        int newFilled = (int) (fraction * getBarWidth());
+        int newPercent = (int) (fraction * 100);
+        if (newFilled != filled || newPercent != percent) {
+            filled = newFilled;
+            percent = newPercent;
+            repaint();
+        }
+    }
+
+
+    protected synchronized void paint() {
+        int barWidth = getBarWidth();
+        put(0, 0, '[', null);
+        fill(1, 0, filled, '#', Enigma.getSystemTextAttributes("attributes.widget.progress"));
+        put(barWidth + 1, 0, ']', null);
+        String text = String.valueOf(Math.max(percent, 0)) + '%';
+        put(getWidth() - text.length(), 0, text, null);
+    }
+}
@@ -0,0 +1,60 @@
+package enigma.console.widgets;
+
+import enigma.console.TextWindow;
+
+/**
+ * A one-row activity indicator:  a rotating character followed by a message.  Each
+ * call to {@link #tick} rewrites just the spinner's own cell.
+ *
+ *@status.experimental
+ */
+public class Spinner extends Widget {
+    private static final char[] FRAMES = { '|', '/', '-', '\\' };
+
+    private int frame;
+    private String message = "";
+
+
+    /**
+     * Creates a spinner.
+     *
+     *@param window the window in which to display the spinner
+     *@param x the column of the spinner's left edge
+     *@param y the row of the spinner
+     *@param width the total width of the spinner, including its message
+     */
+    public Spinner(TextWindow window, int x, int y, int width) {
+        super(window, x, y, width, 1);
+    }
+
+
+    /** Advances the spinner to its next frame. */
+    public synchronized void tick() {
+        frame = (frame + 1) % FRAMES.length;
+        repaint();
+    }
+
+
+    /** Returns the message displayed beside the spinner. */
+    public synchronized String getMessage() {
+        return message;
+    }
+
+
+    /**
+     * Sets the message displayed beside the spinner.  Messages longer than the spinner
+     * are truncated.
+     *
+     *@param message the new message
+     */
+    public synchronized void setMessage(String message) {
+        this.message = message != null ? message : "";
+        repaint();
+    }
+
+
+    protected synchronized void paint() {
+        put(0, 0, FRAMES[frame], null);
+        put(2, 0, message, null);
+    }
+}
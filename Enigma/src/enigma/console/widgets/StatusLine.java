@@ -0,0 +1,84 @@
+package enigma.console.widgets;
+
+import enigma.console.TextAttributes;
+import enigma.console.TextWindow;
+import enigma.core.Enigma;
+
+/**
+ * A single highlighted row of status text, with a left-aligned message and an optional
+ * right-aligned one, typically placed on the bottom row of a window.  Changing either
+ * message rewrites only the characters which differ.
+ *
+ *@status.experimental
+ */
+public class StatusLine extends Widget {
+    private String left = "";
+    private String right = "";
+
+
+    /**
+     * Creates a status line spanning the full width of the window.
+     *
+     *@param window the window in which to display the status line
+     *@param y the row of the status line
+     */
+    public StatusLine(TextWindow window, int y) {
+        this(window, 0, y, window.getColumns());
+    }
+
+
+    /**
+     * Creates a status line.
+     *
+     *@param window the window in which to display the status line
+     *@param x the column of the status line's left edge
+     *@param y the row of the status line
+     *@param width the width of the status line
+     */
+    public StatusLine(TextWindow window, int x, int y, int width) {
+        super(window, x, y, width, 1);
+    }
+
+
+    /** Returns the left-aligned message. */
+    public synchronized String getText() {
+        return left;
+    }
+
+
+    /**
+     * Sets the left-aligned message.
+     *
+     *@param text the new message
+     */
+    public synchronized void setText(String text) {
+        this.left = text != null ? text : "";
+        repaint();
+    }
+
+
+    /** Returns the right-aligned message. */
+    public synchronized String getRightText() {
+        return right;
+    }
+
+
+    /**
+     * Sets the right-aligned message, which is drawn over the left-aligned one if they
+     * overlap.
+     *
+     *@param text the new message
+     */
+    public synchronized void setRightText(String text) {
+        this.right = text != null ? text : "";
+        repaint();
+    }
+
+
+    protected synchronized void paint() {
+        TextAttributes attributes = Enigma.getSystemTextAttributes("attributes.widget.status");
+        fill(0, 0, getWidth(), ' ', attributes);
+        put(1, 0, left, attributes);
+        put(getWidth() - 1 - right.length(), 0, right, attributes);
+    }
+}
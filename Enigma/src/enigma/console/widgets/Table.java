@@ -0,0 +1,142 @@
+package enigma.console.widgets;
+
+import enigma.console.TextAttributes;
+import enigma.console.TextWindow;
+import enigma.core.Enigma;
+
+/**
+ * A table of text with a header row, to which rows are appended as they become
+ * available.  Once the table is full, the oldest rows scroll off the top.
+ *
+ * <p>Since rows arrive one at a time, column widths cannot be known in advance.
+ * Instead each column starts as wide as its header and is widened when a cell does not
+ * fit.  Columns grow by a quarter more than is immediately needed, so that a column
+ * whose values creep wider a character at a time is only reflowed a few times, and
+ * never beyond the maximum column width;  longer values are truncated and marked with
+ * a <code>'~'</code>.</p>
+ *
+ *@status.experimental
+ */
+public class Table extends Widget {
+    private static final int DEFAULT_MAXIMUM_COLUMN_WIDTH = 40;
+    private static final int COLUMN_GAP = 2;
+
+    private final String[] headers;
+    private final int[] columnWidths;
+    private int maximumColumnWidth = DEFAULT_MAXIMUM_COLUMN_WIDTH;
+
+    // the most recent rows, in a ring of (height - 1) entries starting at first
+    private final String[][] rows;
+    private int first;
+    private int count;
+
+
+    /**
+     * Creates an empty table.
+     *
+     *@param window the window in which to display the table
+     *@param x the column of the table's left edge
+     *@param y the row of the table's header
+     *@param width the width of the table in columns
+     *@param height the height of the table in rows, including the header
+     *@param headers the column headers
+     *@throws IllegalArgumentException if <code>height</code> is less than two or there are no headers
+     */
+    public Table(TextWindow window, int x, int y, int width, int height, String[] headers) {
+        super(window, x, y, width, height);
+        if (height < 2)
+            throw new IllegalArgumentException("table must have room for at least one row");
+        if (headers.length == 0)
+            throw new IllegalArgumentException("table must have at least one column");
+        this.headers = (String[]) headers.clone();
+        columnWidths = new int[headers.length];
+        for (int i = 0; i < headers.length; i++)
+            columnWidths[i] = headers[i].length();
+        rows = new String[height - 1][];
+    }
+
+
+    /** Returns the width beyond which columns are not widened. */
+    public synchronized int getMaximumColumnWidth() {
+        return maximumColumnWidth;
+    }
+
+
+    /**
+     * Sets the width beyond which columns are not widened.  Columns which are already
+     * wider are narrowed.
+     *
+     *@param width the maximum column width
+     *@throws IllegalArgumentException if <code>width</code> is not positive
+     */
+    public synchronized void setMaximumColumnWidth(int width) {
+        if (width <= 0)
+            throw new IllegalArgumentException("width must be positive: " + width);
+        maximumColumnWidth = width;
+        for (int i = 0; i < columnWidths.length; i++)
+            columnWidths[i] = Math.min(columnWidths[i], width);
+        repaint();
+    }
+
+
+    /** Returns the current width of the specified column. */
+    public synchronized int getColumnWidth(int column) {
+        return columnWidths[column];
+    }
+
+
+    /**
+     * Appends a row to the table.  Missing cells are left blank and extra cells are
+     * ignored.
+     *
+     *@param cells the row's cells, in column order
+     */
+    public synchronized void addRow(String[] cells) {
+        String[] row = new String[columnWidths.length];
+        for (int i = 0; i < row.length; i++) {
+            String cell = i < cells.length && cells[i] != null ? cells[i] : "";
+            row[i] = cell;
+            int length = cell.length();
+            if (length > columnWidths[i])
+                columnWidths[i] = Math.min(maximumColumnWidth, length + (length >> 2));
+        }
+        if (count < rows.length)
+            rows[(first + count++) % rows.length] = row;
+        else {
+            rows[first] = row;
+            first = (first + 1) % rows.length;
+        }
+        repaint();
+    }
+
+
+    /** Removes every row from the table, retaining the current column widths. */
+    public synchronized void clear() {
+        count = 0;
+        first = 0;
+        repaint();
+    }
+
+
+    protected synchronized void paint() {
+        paintRow(0, headers, Enigma.getSystemTextAttributes("attributes.emphasis"));
+        for (int i = 0; i < count; i++)
+            paintRow(i + 1, rows[(first + i) % rows.length], null);
+    }
+
+
+    private void paintRow(int row, String[] cells, TextAttributes attributes) {
+        int column = 0;
+        for (int i = 0; i < cells.length && column < getWidth(); i++) {
+            String cell = cells[i];
+            int width = columnWidths[i];
+            if (cell.length() > width) {
+                put(column, row, cell.substring(0, width - 1), attributes);
+                put(column + width - 1, row, '~', attributes);
+            }
+            else
+                put(column, row, cell, attributes);
+            column += width + COLUMN_GAP;
+        }
+    }
+}
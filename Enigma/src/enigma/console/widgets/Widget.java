@@ -0,0 +1,190 @@
+package enigma.console.widgets;
+
+import java.util.Arrays;
+
+import enigma.console.TextAttributes;
+import enigma.console.TextWindow;
+import enigma.core.Enigma;
+
+/**
+ * Base class of the text-mode widgets, each of which occupies a fixed rectangle of a
+ * <code>TextWindow</code>.  A widget draws itself into an off-screen cell buffer in
+ * {@link #paint}, and {@link #repaint} then compares that buffer with the cells it last
+ * wrote to the window, outputting only the cells which changed.  Since
+ * <code>TextWindow</code> is write-only, the widget's record of its last rendering is
+ * also what makes this comparison possible.
+ *
+ * <p>Widgets assume that nothing else writes to their rectangle.  If the window is
+ * cleared or scrolled underneath a widget, call {@link #invalidate} so that the next
+ * repaint rewrites every cell.</p>
+ *
+ * <p>Widgets are thread-safe;  their mutators may be called from any thread.</p>
+ *
+ *@status.experimental
+ */
+public abstract class Widget {
+    /** The window in which this widget is displayed. */
+    protected final TextWindow window;
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    // what paint() produced this time, and what was last written to the window
+    private final char[][] chars;
+    private final TextAttributes[][] attributes;
+    private final char[][] renderedChars;
+    private final TextAttributes[][] renderedAttributes;
+    private TextAttributes background;
+
+
+    /**
+     * Creates a widget occupying the specified rectangle of screen cells.  Nothing is
+     * drawn until the first call to <code>repaint</code>.
+     *
+     *@param window the window in which to display the widget
+     *@param x the column of the widget's left edge
+     *@param y the row of the widget's top edge
+     *@param width the width of the widget in columns
+     *@param height the height of the widget in rows
+     *@throws IllegalArgumentException if the position is negative or the size is not positive
+     */
+    protected Widget(TextWindow window, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0)
+            throw new IllegalArgumentException("invalid widget bounds: " + x + ", " + y + ", " + width + ", " + height);
+        this.window = window;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        chars = new char[height][width];
+        attributes = new TextAttributes[height][width];
+        renderedChars = new char[height][width];
+        renderedAttributes = new TextAttributes[height][width]; // null: never rendered
+    }
+
+
+    /** Returns the column of this widget's left edge. */
+    public int getX() {
+        return x;
+    }
+
+
+    /** Returns the row of this widget's top edge. */
+    public int getY() {
+        return y;
+    }
+
+
+    /** Returns the width of this widget in columns. */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /** Returns the height of this widget in rows. */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+     * Draws this widget into its cell buffer.  The buffer has been filled with blanks in
+     * the console's default attributes before this method is called.
+     */
+    protected abstract void paint();
+
+
+    /**
+     * Brings the window up to date with this widget's state, outputting only those cells
+     * which differ from what was last written.
+     */
+    public synchronized void repaint() {
+        background = Enigma.getSystemTextAttributes("attributes.console.default");
+        for (int i = 0; i < height; i++) {
+            Arrays.fill(chars[i], ' ');
+            Arrays.fill(attributes[i], background);
+        }
+        paint();
+        int columns = window.getColumns();
+        int rows = window.getRows();
+        for (int i = 0; i < height && y + i < rows; i++) {
+            char[] rowChars = chars[i];
+            TextAttributes[] rowAttributes = attributes[i];
+            char[] oldChars = renderedChars[i];
+            TextAttributes[] oldAttributes = renderedAttributes[i];
+            for (int j = 0; j < width && x + j < columns; j++) {
+                if (rowChars[j] != oldChars[j] || rowAttributes[j] != oldAttributes[j]) {
+                    window.output(x + j, y + i, rowChars[j], rowAttributes[j]);
+                    oldChars[j] = rowChars[j];
+                    oldAttributes[j] = rowAttributes[j];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Forgets what this widget last wrote to the window, so that the next
+     * <code>repaint</code> outputs every cell.
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < height; i++)
+            Arrays.fill(renderedAttributes[i], null);
+    }
+
+
+    /**
+     * Places a character in the cell buffer.  Positions outside of the widget are ignored.
+     *
+     *@param column the column, relative to the widget
+     *@param row the row, relative to the widget
+     *@param c the character
+     *@param attributes the character's attributes, or <code>null</code> for the default
+     */
+    protected void put(int column, int row, char c, TextAttributes attributes) {
+        if (column < 0 || column >= width || row < 0 || row >= height)
+            return;
+        chars[row][column] = c;
+        this.attributes[row][column] = attributes != null ? attributes : background;
+    }
+
+
+    /**
+     * Places a string in the cell buffer, clipped to the widget.
+     *
+     *@param column the column, relative to the widget, of the first character
+     *@param row the row, relative to the widget
+     *@param s the string
+     *@param attributes the string's attributes, or <code>null</code> for the default
+     *@return the column following the last character of the string
+     */
+    protected int put(int column, int row, String s, TextAttributes attributes) {
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+            put(column + i, row, s.charAt(i), attributes);
+        return column + length;
+    }
+
+
+    /**
+     * Fills a horizontal run of the cell buffer with a character.
+     *
+     *@param column the column, relative to the widget, at which to start
+     *@param row the row, relative to the widget
+     *@param count the number of cells to fill
+     *@param c the character
+     *@param attributes the characters' attributes, or <code>null</code> for the default
+     */
+    protected void fill(int column, int row, int count, char c, TextAttributes attributes) {
+        for (int i = 0; i < count; i++)
+            put(column + i, row, c, attributes);
+    }
+
+
+    /** Returns the console's default <code>TextAttributes</code>, as used for blank cells. */
+    protected TextAttributes getDefaultAttributes() {
+        return background;
+    }
+}
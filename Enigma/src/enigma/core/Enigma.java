@@ -1,18 +1,17 @@
 package enigma.core;
 
 
-import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.Permission;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
@@ -40,10 +39,19 @@ import enigma.util.Util;
 public class Enigma {
     private static final Permission SET_ENVIRONMENT_PERMISSION = new RuntimePermission("enigma.core.Enigma.setEnvironment");
     private static final Permission INSTALL_CONSOLE_PERMISSION = new RuntimePermission("enigma.core.Enigma.installConsole");
+    private static final Permission SET_THEME_FILE_PERMISSION = new RuntimePermission("enigma.core.Enigma.setThemeFile");
     
-    private static Properties properties;
+    private static volatile ThemeRegistry theme;
     private static Environment environment;
     private static Console console;
+    private static final ThreadLocal<Console> scopedConsole = new ThreadLocal<Console>();
+    private static int scopeCount;
+    private static PrintStream originalOut;
+    private static PrintStream originalErr;
+    private static InputStream originalIn;
+    private static PrintStream scopedOut;
+    private static PrintStream scopedErr;
+    private static InputStream scopedIn;
     private static Random random = new Random();
     
     // non-instantiable
@@ -129,6 +137,12 @@ public class Enigma {
      *@return the <code>Console</code> associated with the current virtual machine, first creating one if necessary
      */
     public static Console getConsole(final String title) {
+        Console scoped = scopedConsole.get();
+        if (scoped != null) {
+            if (title != null)
+                scoped.setTitle(title);
+            return scoped;
+        }
         // need to be able to use DISPOSE_ON_CLOSE and have better notification of
         // window close
         if (console == null) {
@@ -167,6 +181,148 @@ public class Enigma {
     }
 
 
+    /**
+     * Runs a task in the current thread with the specified <code>Console</code> in place
+     * of the virtual machine's console.  Until the task returns, <code>getConsole()</code>
+     * returns <code>console</code>, and <code>System.in, System.out, </code>and
+     * <code>System.err</code> read from and write to it, in the current thread only;
+     * all other threads, including any the task starts, continue to use the virtual
+     * machine's console and streams.  This allows a program to capture the output of
+     * another without disturbing the rest of the application.  The System streams are
+     * replaced while any task is running in a console, and restored once the last
+     * such task returns.
+     *
+     *@param console the <code>Console</code> the task uses
+     *@param task the task to run
+     *@throws SecurityException if the security manager denies the request
+     *@see #installConsole
+     */
+    public static void runInConsole(Console console, Runnable task) {
+        if (System.getSecurityManager() != null)
+            System.getSecurityManager().checkPermission(INSTALL_CONSOLE_PERMISSION);
+        enterScope();
+        Console previous = scopedConsole.get();
+        scopedConsole.set(console);
+        try {
+            task.run();
+        }
+        finally {
+            if (previous != null)
+                scopedConsole.set(previous);
+            else
+                scopedConsole.remove();
+            exitScope();
+        }
+    }
+
+
+    // wraps the System streams, unless they are already wrapped, so that the threads
+    // running in a scoped console use its streams;  the streams being replaced remain
+    // in use by all other threads, so redirections such as "ansi on" are preserved
+    private static synchronized void enterScope() {
+        scopeCount++;
+        if (System.out != scopedOut) {
+            originalOut = System.out;
+            scopedOut = new PrintStream(new ScopedOutputStream(originalOut));
+            System.setOut(scopedOut);
+        }
+        if (System.err != scopedErr) {
+            originalErr = System.err;
+            scopedErr = new PrintStream(new ScopedOutputStream(originalErr));
+            System.setErr(scopedErr);
+        }
+        if (System.in != scopedIn) {
+            originalIn = System.in;
+            scopedIn = new ScopedInputStream(originalIn);
+            System.setIn(scopedIn);
+        }
+    }
+
+
+    // puts back the streams wrapped by enterScope once no thread is running in a scoped
+    // console;  streams which have since been replaced by someone else are left alone
+    private static synchronized void exitScope() {
+        if (--scopeCount > 0)
+            return;
+        if (System.out == scopedOut)
+            System.setOut(originalOut);
+        if (System.err == scopedErr)
+            System.setErr(originalErr);
+        if (System.in == scopedIn)
+            System.setIn(originalIn);
+        scopedOut = null;
+        scopedErr = null;
+        scopedIn = null;
+        originalOut = null;
+        originalErr = null;
+        originalIn = null;
+    }
+
+
+    // writes to the current thread's scoped console, or to the stream it replaced
+    private static class ScopedOutputStream extends OutputStream {
+        private final OutputStream out;
+
+
+        ScopedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+
+        private OutputStream target() {
+            Console console = scopedConsole.get();
+            return console != null ? console.getOutputStream() : out;
+        }
+
+
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+
+    // reads from the current thread's scoped console, or from the stream it replaced
+    private static class ScopedInputStream extends InputStream {
+        private final InputStream in;
+
+
+        ScopedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+
+        private InputStream target() {
+            Console console = scopedConsole.get();
+            return console != null ? console.getInputStream() : in;
+        }
+
+
+        public int read() throws IOException {
+            return target().read();
+        }
+
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            return target().read(b, off, len);
+        }
+
+
+        public int available() throws IOException {
+            return target().available();
+        }
+    }
+
+
     /** 
      * Returns <code>true</code> if the filesystem on which the specified
      * file lives is case-sensitive.  Case-preserving but case-insensitive
@@ -335,42 +491,92 @@ public class Enigma {
     }
     
     
-    public static String getSystemProperty(String key) {
-        if (properties == null) {
-            try {
-                properties = new Properties();
-                properties.load(Enigma.class.getResourceAsStream("resources/properties/defaults.properties"));
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e.toString());
+    private static ThemeRegistry getTheme() {
+        ThemeRegistry result = theme;
+        if (result == null) {
+            synchronized (Enigma.class) {
+                result = theme;
+                if (result == null) {
+                    result = new ThemeRegistry(getDefaultThemeFile());
+                    theme = result;
+                }
             }
         }
-        
-        return properties.getProperty(key);
+        return result;
     }
     
     
-    private static TextAttributes parseTextAttributes(String value) {
-        StringTokenizer st = new StringTokenizer(value, ", \t");
-        int tokens = st.countTokens();
-        if (tokens != 3 && tokens != 6)
-            throw new IllegalArgumentException("expected three or six comma-separated numbers, got '" + value + "'");
-        Color foreground = new Color(Integer.parseInt(st.nextToken()),
-                                     Integer.parseInt(st.nextToken()),
-                                     Integer.parseInt(st.nextToken()));
-        Color background;
-        if (tokens == 6)
-            background = new Color(Integer.parseInt(st.nextToken()),
-                                   Integer.parseInt(st.nextToken()),
-                                   Integer.parseInt(st.nextToken()));
-        else
-            background = getSystemTextAttributes("attributes.console.default").getBackground();
-        return new TextAttributes(foreground, background);
+    // the file named by the enigma.theme system property, or ~/.enigma/theme.properties
+    private static File getDefaultThemeFile() {
+        return AccessController.doPrivileged(new PrivilegedAction<File>() {
+            public File run() {
+                String path = System.getProperty("enigma.theme");
+                if (path != null)
+                    return new File(path);
+                String home = System.getProperty("user.home");
+                if (home == null)
+                    return null;
+                return new File(new File(home, ".enigma"), "theme.properties");
+            }
+        });
     }
     
     
+    /** 
+     * Returns the value of an Enigma system property.  System properties are read from
+     * Enigma's built-in defaults, overridden by the user theme file if one exists (see
+     * {@link #setThemeFile}).  Changes to the theme file are picked up automatically
+     * within a second or so.
+     *
+     *@param key the name of the property
+     *@return the property's value, or <code>null</code> if it is not defined
+     */
+    public static String getSystemProperty(String key) {
+        return getTheme().getProperty(key);
+    }
+    
+    
+    /** 
+     * Returns the <code>TextAttributes</code> defined by an Enigma system property, such as
+     * <code>"attributes.console.default"</code>.  Attributes are parsed once, when the theme
+     * is loaded, and the same shared instance is returned by every call until the theme
+     * changes.  Callers which run for a long time should therefore look attributes up when
+     * they are needed rather than caching them, so that theme changes take effect.  Windows
+     * and consoles resolve <code>"attributes.console.default"</code> once, when they are
+     * created, so changes to it apply to those created afterwards.
+     *
+     *@param key the name of the property
+     *@throws IllegalArgumentException if the property is not defined or is not a valid text attribute value
+     */
     public static TextAttributes getSystemTextAttributes(String key) {
-        return parseTextAttributes(getSystemProperty(key));
+        return getTheme().getTextAttributes(key);
+    }
+    
+    
+    /** 
+     * Returns the user theme file which overrides Enigma's default system properties.  It
+     * is named by the <code>enigma.theme</code> system property, and defaults to
+     * <code>.enigma/theme.properties</code> in the user's home directory.  The file need
+     * not exist.
+     */
+    public static File getThemeFile() {
+        return getTheme().getThemeFile();
+    }
+    
+    
+    /** 
+     * Replaces the user theme file.  The new file is read immediately, and is thereafter
+     * reloaded whenever it changes.  If there is a security manager, its
+     * <code>checkPermission</code> method is first called with a
+     * <code>RuntimePermission("enigma.core.Enigma.setThemeFile")</code> permission.
+     *
+     *@param file the new theme file, or <code>null</code> to use only the built-in defaults
+     *@throws SecurityException if the security manager denies the request
+     */
+    public static void setThemeFile(File file) throws SecurityException {
+        if (System.getSecurityManager() != null)
+            System.getSecurityManager().checkPermission(SET_THEME_FILE_PERMISSION);
+        theme = new ThemeRegistry(file);
     }
     
     
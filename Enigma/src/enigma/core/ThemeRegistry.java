@@ -0,0 +1,255 @@
+package enigma.core;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import enigma.console.TextAttributes;
+
+/**
+ * Holds Enigma's system properties and the <code>TextAttributes</code> parsed from
+ * them.  The built-in <code>defaults.properties</code> are read once;  a user theme
+ * file, if present, overrides individual keys.  Every <code>attributes.*</code> key is
+ * parsed into a shared <code>TextAttributes</code> when the theme is loaded, so that
+ * lookups are a single map access and never allocate.
+ *
+ * <p>The loaded theme is an immutable snapshot, replaced wholesale when the user theme
+ * file changes, so readers need no locking.  The file is checked for modification at
+ * most once every {@link #CHECK_INTERVAL} milliseconds, which allows a long-running
+ * shell to pick up an edited theme without restarting.  Windows and consoles take their
+ * default attributes from the theme when they are created, so a change to
+ * <code>attributes.console.default</code> applies to those created afterwards, while
+ * other attributes take effect wherever they are next looked up.  The file is read
+ * with Enigma's own permissions, so that callers without file access may still look up
+ * attributes.</p>
+ *
+ * <p>Text attribute values consist of three (foreground) or six (foreground and
+ * background) integer color components, optionally followed by any of the style names
+ * <code>bold</code>, <code>dim</code>, <code>underline</code>, <code>inverse</code>
+ * and <code>strikethrough</code>:</p>
+ *
+ * <pre>
+ *   attributes.shell.prompt = 192, 192, 255   0, 0, 64   bold
+ * </pre>
+ */
+class ThemeRegistry {
+    /** Minimum number of milliseconds between checks of the user theme file. */
+    static final long CHECK_INTERVAL = 1000;
+
+    private static final String DEFAULTS = "resources/properties/defaults.properties";
+    private static final String ATTRIBUTES_PREFIX = "attributes.";
+    private static final String DEFAULT_ATTRIBUTES = "attributes.console.default";
+
+    private final Properties defaults;
+    private final File themeFile;
+
+    private volatile Snapshot snapshot;
+    private volatile long nextCheck;
+
+
+    /**
+     * Creates a registry which layers the specified theme file over the built-in defaults.
+     *
+     *@param themeFile the user theme file, which need not exist, or <code>null</code> for none
+     */
+    ThemeRegistry(File themeFile) {
+        this.themeFile = themeFile;
+        defaults = new Properties();
+        InputStream in = Enigma.class.getResourceAsStream(DEFAULTS);
+        try {
+            try {
+                defaults.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+        snapshot = refresh(null);
+        nextCheck = System.currentTimeMillis() + CHECK_INTERVAL;
+    }
+
+
+    /** Returns the user theme file, or <code>null</code> if there is none. */
+    File getThemeFile() {
+        return themeFile;
+    }
+
+
+    /** Returns the value of the specified property, or <code>null</code> if it is not defined. */
+    String getProperty(String key) {
+        return current().properties.getProperty(key);
+    }
+
+
+    /**
+     * Returns the <code>TextAttributes</code> defined by the specified property.
+     *
+     *@throws IllegalArgumentException if the property is not defined or is not a valid text attribute value
+     */
+    TextAttributes getTextAttributes(String key) {
+        Snapshot s = current();
+        TextAttributes result = s.attributes.get(key);
+        if (result == null) {
+            String value = s.properties.getProperty(key);
+            if (value == null)
+                throw new IllegalArgumentException("no such text attributes: " + key);
+            result = parseTextAttributes(value, s.attributes.get(DEFAULT_ATTRIBUTES));
+        }
+        return result;
+    }
+
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (themeFile != null && System.currentTimeMillis() >= nextCheck) {
+            synchronized (this) {
+                s = snapshot;
+                long now = System.currentTimeMillis();
+                if (now >= nextCheck) {
+                    nextCheck = now + CHECK_INTERVAL;
+                    s = refresh(s);
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+
+    // returns current if the theme file has not changed since it was loaded, or a newly
+    // loaded snapshot otherwise;  the file is examined and read with Enigma's own
+    // permissions, whatever the caller's
+    private Snapshot refresh(final Snapshot current) {
+        return AccessController.doPrivileged(new PrivilegedAction<Snapshot>() {
+            public Snapshot run() {
+                if (current != null && themeFile.lastModified() == current.lastModified && themeFile.length() == current.length)
+                    return current;
+                return load();
+            }
+        });
+    }
+
+
+    // reads the user theme file over the defaults and parses every text attribute key;
+    // malformed user values fall back to the corresponding default
+    private Snapshot load() {
+        Properties properties = new Properties(defaults);
+        long lastModified = 0;
+        long length = 0;
+        if (themeFile != null && themeFile.isFile()) {
+            lastModified = themeFile.lastModified();
+            length = themeFile.length();
+            try {
+                InputStream in = new FileInputStream(themeFile);
+                try {
+                    properties.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                properties = new Properties(defaults);
+            }
+        }
+
+        Map<String, TextAttributes> attributes = new HashMap<String, TextAttributes>();
+        TextAttributes defaultAttributes = parse(properties, DEFAULT_ATTRIBUTES, null);
+        attributes.put(DEFAULT_ATTRIBUTES, defaultAttributes);
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ATTRIBUTES_PREFIX) && !key.equals(DEFAULT_ATTRIBUTES))
+                attributes.put(key, parse(properties, key, defaultAttributes));
+        }
+        return new Snapshot(properties, Collections.unmodifiableMap(attributes), lastModified, length);
+    }
+
+
+    private TextAttributes parse(Properties properties, String key, TextAttributes defaultAttributes) {
+        try {
+            return parseTextAttributes(properties.getProperty(key), defaultAttributes);
+        }
+        catch (IllegalArgumentException e) {
+            String value = defaults.getProperty(key);
+            if (value == null)
+                throw e;
+            return parseTextAttributes(value, defaultAttributes);
+        }
+    }
+
+
+    /**
+     * Parses a text attribute value.  If the value specifies only a foreground color,
+     * the background is taken from <code>defaultAttributes</code>.
+     *
+     *@throws IllegalArgumentException if the value is malformed
+     */
+    static TextAttributes parseTextAttributes(String value, TextAttributes defaultAttributes) {
+        StringTokenizer st = new StringTokenizer(value, ", \t");
+        int[] components = new int[6];
+        int count = 0;
+        int style = 0;
+        while (st.hasMoreTokens()) {
+            String token = st.nextToken();
+            if (Character.isDigit(token.charAt(0))) {
+                if (count == components.length || style != 0)
+                    throw new IllegalArgumentException("expected three or six comma-separated numbers, got '" + value + "'");
+                components[count++] = Integer.parseInt(token);
+            }
+            else
+                style |= parseStyle(token, value);
+        }
+        Color background;
+        if (count == 6)
+            background = new Color(components[3], components[4], components[5]);
+        else if (count == 3 && defaultAttributes != null)
+            background = defaultAttributes.getBackground();
+        else
+            throw new IllegalArgumentException("expected three or six comma-separated numbers, got '" + value + "'");
+        Color foreground = new Color(components[0], components[1], components[2]);
+        return TextAttributes.getInstance(foreground, background, style);
+    }
+
+
+    private static int parseStyle(String name, String value) {
+        if (name.equalsIgnoreCase("bold"))
+            return TextAttributes.BOLD;
+        if (name.equalsIgnoreCase("dim"))
+            return TextAttributes.DIM;
+        if (name.equalsIgnoreCase("underline"))
+            return TextAttributes.UNDERLINE;
+        if (name.equalsIgnoreCase("inverse"))
+            return TextAttributes.INVERSE;
+        if (name.equalsIgnoreCase("strikethrough"))
+            return TextAttributes.STRIKETHROUGH;
+        throw new IllegalArgumentException("unknown style '" + name + "' in '" + value + "'");
+    }
+
+
+    // one immutable generation of the theme
+    private static class Snapshot {
+        final Properties properties;
+        final Map<String, TextAttributes> attributes;
+        final long lastModified;
+        final long length;
+
+
+        Snapshot(Properties properties, Map<String, TextAttributes> attributes, long lastModified, long length) {
+            this.properties = properties;
+            this.attributes = attributes;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
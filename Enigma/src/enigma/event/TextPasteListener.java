@@ -0,0 +1,20 @@
+package enigma.event;
+
+import java.util.EventListener;
+
+/**
+ * A listener which may be notified when text is pasted into a <code>TextWindow</code>.
+ *
+ *@status.experimental
+ *@see TextWindowEvent#PASTED
+ */
+public interface TextPasteListener extends EventListener {
+    /**
+     * Invoked when the user pastes text into a <code>TextWindow</code>.  The entire
+     * text is delivered in one event, rather than as a key event per character.
+     *
+     *@param e the <code>TextWindowEvent</code> carrying the pasted text
+     *@see TextWindowEvent#getText
+     */
+    void textPasted(TextWindowEvent e);
+}
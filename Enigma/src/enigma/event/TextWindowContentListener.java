@@ -0,0 +1,23 @@
+package enigma.event;
+
+import java.util.EventListener;
+
+/**
+ * A listener which may be notified when the contents of a <code>TextWindow</code>
+ * change.  Changes are batched, so a single event may cover many calls to the
+ * window's output methods.  <code>TextWindows</code> only keep track of changed
+ * cells while at least one content listener is registered.
+ *
+ *@status.experimental
+ *@see TextWindowEvent#CONTENT_CHANGED
+ */
+public interface TextWindowContentListener extends EventListener {
+    /**
+     * Invoked after the contents of a <code>TextWindow</code> change.  The event
+     * carries the spans of cells which changed, in screen coordinates.
+     *
+     *@param e the <code>TextWindowEvent</code> carrying the changed spans
+     *@see TextWindowEvent#getSpanCount
+     */
+    void contentChanged(TextWindowEvent e);
+}
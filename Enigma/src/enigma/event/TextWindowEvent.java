@@ -5,7 +5,10 @@ import java.util.EventObject;
 import enigma.console.TextWindow;
 
 /** 
- * <code>TextWindowEvents</code> are fired when <code>TextWindows</code> are resized. 
+ * <code>TextWindowEvents</code> are fired when <code>TextWindows</code> are resized,
+ * when their contents change, and when text is pasted into them.  Content change
+ * events carry the spans of cells which changed, in screen coordinates, and paste
+ * events carry the pasted text.
  *
  *@status.stable
  *@author Ethan Royael Nicholas (<a href="mailto:ethan@ethannicholas.com">ethan@ethannicholas.com</a>)
@@ -19,7 +22,21 @@ public class TextWindowEvent extends EventObject {
 	/** The event ID that indicates a resize event. */
     public static final int RESIZED  = 12000;
     
+    /** The event ID that indicates a content change event. */
+    public static final int CONTENT_CHANGED = 12001;
+    
+    /** The event ID that indicates text was pasted. */
+    public static final int PASTED = 12002;
+    
+    private static final int[] NO_SPANS = new int[0];
+    
     private int id;
+    
+    /** Changed spans, packed as (row, start column, end column) triples. */
+    private int[] spans;
+    
+    /** The pasted text, or null for other events. */
+    private String text;
 
     /** 
      * Constructs a new <code>TextWindowEvent</code> with the specified source and id.
@@ -28,8 +45,39 @@ public class TextWindowEvent extends EventObject {
      *@param id the event ID
      */
     public TextWindowEvent(TextWindow source, int id) {
+        this(source, id, NO_SPANS);
+    }
+    
+    
+    /** 
+     * Constructs a new <code>TextWindowEvent</code> with the specified source, id, and
+     * changed spans.  The spans are packed into the array as consecutive
+     * (row, start column, end column) triples, where the end column is exclusive.
+     * The array is not copied.
+     *
+     *@param source the <code>TextWindow</code> which generated this event
+     *@param id the event ID
+     *@param spans the changed spans
+     *@throws IllegalArgumentException if the length of <code>spans</code> is not a multiple of three
+     */
+    public TextWindowEvent(TextWindow source, int id, int[] spans) {
         super(source);
+        if (spans.length % 3 != 0)
+            throw new IllegalArgumentException("spans must consist of (row, start, end) triples");
         this.id = id;
+        this.spans = spans;
+    }
+    
+
+    /** 
+     * Constructs a new {@link #PASTED} event carrying the specified text.
+     *
+     *@param source the <code>TextWindow</code> into which the text was pasted
+     *@param text the pasted text
+     */
+    public TextWindowEvent(TextWindow source, String text) {
+        this(source, PASTED, NO_SPANS);
+        this.text = text;
     }
     
 
@@ -39,4 +87,53 @@ public class TextWindowEvent extends EventObject {
     public int getID() {
         return id;
     }
+    
+    
+    /** 
+     * Returns the number of changed spans carried by this event.  Each span covers
+     * part of a single row.  Events other than {@link #CONTENT_CHANGED} carry no spans.
+     */
+    public int getSpanCount() {
+        return spans.length / 3;
+    }
+    
+    
+    /** 
+     * Returns the row of the specified span.
+     *
+     *@param index the index of the span, from zero to <code>getSpanCount() - 1</code>
+     */
+    public int getSpanRow(int index) {
+        return spans[index * 3];
+    }
+    
+    
+    /** 
+     * Returns the first changed column of the specified span.
+     *
+     *@param index the index of the span, from zero to <code>getSpanCount() - 1</code>
+     */
+    public int getSpanStart(int index) {
+        return spans[index * 3 + 1];
+    }
+    
+    
+    /** 
+     * Returns the column just past the last changed column of the specified span.
+     *
+     *@param index the index of the span, from zero to <code>getSpanCount() - 1</code>
+     */
+    public int getSpanEnd(int index) {
+        return spans[index * 3 + 2];
+    }
+    
+    
+    /** 
+     * Returns the pasted text of a {@link #PASTED} event, or <code>null</code> for
+     * other events.  Lines may be separated by any of <code>"\n"</code>,
+     * <code>"\r\n"</code> and <code>"\r"</code>.
+     */
+    public String getText() {
+        return text;
+    }
 }
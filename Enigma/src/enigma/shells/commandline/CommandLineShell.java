@@ -10,7 +10,6 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import enigma.console.Console;
-import enigma.console.TextAttributes;
 import enigma.console.TextWindow;
 import enigma.core.Enigma;
 import enigma.core.Environment;
@@ -27,8 +26,6 @@ import enigma.util.Util;
  *@author Ethan Royael Nicholas (<a href="mailto:ethan@ethannicholas.com">ethan@ethannicholas.com</a>)
  */
 public class CommandLineShell {
-    private static TextAttributes promptAttributes = Enigma.getSystemTextAttributes("attributes.shell.prompt");
-    private static TextAttributes defaultAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
     
     private Thread childThread;
     private Environment env;
@@ -37,6 +34,7 @@ public class CommandLineShell {
     
     /** Constructs a new <code>CommandLineShell</code>. */
     public CommandLineShell() {
+        env = Enigma.getEnvironment(); // runShell may be bypassed, as by the watch command
         compatibilityAliases.put("Ls", "List");
         compatibilityAliases.put("Dir", "List");
         compatibilityAliases.put("Echo", "Say");
@@ -84,9 +82,9 @@ public class CommandLineShell {
     /** Displays the prompt on the console. */
     protected void displayPrompt() {
         Console console = Enigma.getConsole();
-        console.setTextAttributes(promptAttributes);
+        console.setTextAttributes(Enigma.getSystemTextAttributes("attributes.shell.prompt"));
         System.out.print(env.getCurrentPath() + " $ ");
-        console.setTextAttributes(defaultAttributes);
+        console.setTextAttributes(Enigma.getSystemTextAttributes("attributes.console.default"));
     }
     
     
@@ -200,6 +198,7 @@ public class CommandLineShell {
             }
             catch (InterruptedException e) {
                 childThread.stop();
+                Thread.currentThread().interrupt(); // so that a caller such as watch stops too
             }
             Util.println();
         }
@@ -296,6 +295,7 @@ public class CommandLineShell {
         }
         catch (InterruptedException e) {
             childThread.stop();
+            Thread.currentThread().interrupt();
         }
     }    
     
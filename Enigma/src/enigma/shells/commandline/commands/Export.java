@@ -0,0 +1,83 @@
+package enigma.shells.commandline.commands;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import enigma.console.TextWindow;
+import enigma.console.TextWindowNotAvailableException;
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.console.java2d.TextWindowExporter;
+import enigma.core.Enigma;
+import enigma.util.Util;
+
+/**
+ * Saves the console's entire history, scrollback included, to a file as plain text,
+ * HTML or ANSI.  The format is chosen with <code>-text</code>, <code>-html</code> or
+ * <code>-ansi</code>, or otherwise from the file's extension.
+ */
+public class Export {
+    public static void main(String[] args) {
+        int format = -1;
+        String path = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("-text"))
+                format = TextWindowExporter.TEXT;
+            else if (args[i].equalsIgnoreCase("-html"))
+                format = TextWindowExporter.HTML;
+            else if (args[i].equalsIgnoreCase("-ansi"))
+                format = TextWindowExporter.ANSI;
+            else if (path == null)
+                path = args[i];
+            else {
+                path = null;
+                break;
+            }
+        }
+        if (path == null) {
+            Util.println(Util.msg(Export.class, "usage.info"));
+            return;
+        }
+        if (format == -1)
+            format = getFormatFor(path);
+
+        TextWindow window;
+        try {
+            window = Enigma.getConsole().getTextWindow();
+        }
+        catch (TextWindowNotAvailableException e) {
+            window = null;
+        }
+        if (!(window instanceof Java2DTextWindow)) {
+            Util.println(Util.msg(Export.class, "not.supported"));
+            return;
+        }
+
+        File file = Enigma.resolvePath(path);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            try {
+                new TextWindowExporter((Java2DTextWindow) window, format).export(out);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            Util.println(Util.msg(Export.class, "error.writing", new Object[] { file, e.getMessage() }));
+        }
+    }
+
+
+    private static int getFormatFor(String path) {
+        String name = path.toLowerCase();
+        if (name.endsWith(".html") || name.endsWith(".htm"))
+            return TextWindowExporter.HTML;
+        if (name.endsWith(".ans") || name.endsWith(".ansi"))
+            return TextWindowExporter.ANSI;
+        return TextWindowExporter.TEXT;
+    }
+}
@@ -11,14 +11,16 @@ public class Help {
         Util.println("'Real' help is not yet available in this preview version.");
         Util.println("However, feel free to play around with the following commands:");
         Util.println("");
-        Enigma.getConsole().setTextAttributes(new TextAttributes(new Color(255, 128, 128), Color.black));
+        Enigma.getConsole().setTextAttributes(TextAttributes.getInstance(new Color(255, 128, 128), Color.black));
         Util.println("cd");
         Util.println("exit");
+        Util.println("export");
         Util.println("list");
         Util.println("mkdir");
         Util.println("say");
         Util.println("start");
         Util.println("type");
+        Util.println("watch");
         Enigma.getConsole().setTextAttributes(Enigma.getSystemTextAttributes("attributes.console.default"));
         Util.println("");
         Util.println("A few other commands are supported, but they're not likely to");
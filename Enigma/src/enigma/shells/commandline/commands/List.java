@@ -18,11 +18,12 @@ public class List {
     private static final String DIR = Util.msg(List.class, "directory");
     private static final NumberFormat SIZE_FORMAT = NumberFormat.getInstance();
 
-    private static TextAttributes dirAttributes  = Enigma.getSystemTextAttributes("attributes.list.dir");
-    private static TextAttributes sizeAttributes = Enigma.getSystemTextAttributes("attributes.list.size");
-    private static TextAttributes dateAttributes = Enigma.getSystemTextAttributes("attributes.list.date");
-    private static TextAttributes timeAttributes = Enigma.getSystemTextAttributes("attributes.list.time");
-    private static TextAttributes nameAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
+    // looked up per listing, so that theme changes apply to the next command
+    private TextAttributes dirAttributes  = Enigma.getSystemTextAttributes("attributes.list.dir");
+    private TextAttributes sizeAttributes = Enigma.getSystemTextAttributes("attributes.list.size");
+    private TextAttributes dateAttributes = Enigma.getSystemTextAttributes("attributes.list.date");
+    private TextAttributes timeAttributes = Enigma.getSystemTextAttributes("attributes.list.time");
+    private TextAttributes nameAttributes = Enigma.getSystemTextAttributes("attributes.console.default");
     
     private int fileCount;
     private int dirCount;
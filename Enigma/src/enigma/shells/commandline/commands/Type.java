@@ -61,6 +61,7 @@ public class Type {
             int c;
             while ((c = file.read(buffer)) > 0)
                 System.out.write(buffer, 0, c);
+            System.out.flush(); // so that the cursor position is up to date
             try {
                 if (Enigma.getConsole().getTextWindow().getCursorX() != 0)
                     Util.println();
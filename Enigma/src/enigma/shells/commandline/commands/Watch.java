@@ -0,0 +1,151 @@
+package enigma.shells.commandline.commands;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.console.TextWindow;
+import enigma.console.TextWindowNotAvailableException;
+import enigma.console.widgets.StatusLine;
+import enigma.console.widgets.Widget;
+import enigma.core.Enigma;
+import enigma.shells.commandline.CommandLineShell;
+import enigma.util.Util;
+
+/**
+ * Runs a command repeatedly, displaying its most recent output full-screen.  Each run's
+ * output is captured in a {@link MemoryTextWindow} and compared with the previous run,
+ * and only the cells which changed are written to the console.  The display uses the
+ * alternate screen, so watching a command indefinitely neither grows the scrollback
+ * nor disturbs it.
+ */
+public class Watch {
+    private static final int DEFAULT_INTERVAL = 2;
+
+    private final TextWindow window;
+    private final String[] command;
+    private final int interval;
+    private final DateFormat timeFormat = DateFormat.getTimeInstance();
+
+
+    private Watch(TextWindow window, String[] command, int interval) {
+        this.window = window;
+        this.command = command;
+        this.interval = interval;
+    }
+
+
+    public static void main(String[] args) {
+        int interval = DEFAULT_INTERVAL;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("-n")) {
+            try {
+                interval = Integer.parseInt(args[1]);
+                first = 2;
+            }
+            catch (RuntimeException e) { // missing or malformed interval
+                interval = 0;
+            }
+        }
+        if (interval <= 0 || first >= args.length) {
+            Util.println(Util.msg(Watch.class, "usage.info"));
+            return;
+        }
+        String[] command = new String[args.length - first];
+        System.arraycopy(args, first, command, 0, command.length);
+
+        Console console = Enigma.getConsole("watch");
+        TextWindow window;
+        try {
+            window = console.getTextWindow();
+        }
+        catch (TextWindowNotAvailableException e) {
+            Util.println(Util.msg(Watch.class, "no.text.window"));
+            return;
+        }
+        new Watch(window, command, interval).run();
+    }
+
+
+    private void run() {
+        StringBuffer commandLine = new StringBuffer();
+        for (int i = 0; i < command.length; i++) {
+            if (i > 0)
+                commandLine.append(' ');
+            commandLine.append(command[i]);
+        }
+        String header = Util.msg(Watch.class, "header", new Object[] { Integer.valueOf(interval), commandLine });
+
+        final CommandLineShell shell = new CommandLineShell();
+        MemoryTextWindow grid = new MemoryTextWindow(window.getColumns(), Math.max(1, window.getRows() - 1));
+        Console capture = new DefaultConsoleImpl(grid);
+        window.setAlternateScreen(true);
+        try {
+            StatusLine status = null;
+            GridView view = null;
+            for (;;) {
+                int columns = window.getColumns();
+                int rows = Math.max(1, window.getRows() - 1);
+                if (view == null || grid.getColumns() != columns || grid.getRows() != rows) {
+                    // first run, or the window was resized:  resize the capture window and
+                    // lay the display out again, repainting every cell
+                    grid.setSize(columns, rows);
+                    status = new StatusLine(window, 0, 0, columns);
+                    status.setText(header);
+                    view = new GridView(window, grid);
+                }
+
+                grid.clear();
+                runCaptured(shell, capture);
+                if (Thread.interrupted()) // the shell stopped the command
+                    break;
+                view.repaint();
+                status.setRightText(timeFormat.format(new Date()));
+                Thread.sleep(interval * 1000L);
+            }
+        }
+        catch (InterruptedException e) {
+            // stopped by the shell
+        }
+        finally {
+            window.setAlternateScreen(false);
+        }
+    }
+
+
+    // runs the command with the capture console as its console;  the rest of the
+    // application, including the shell running watch, keeps writing to the window
+    private void runCaptured(final CommandLineShell shell, Console capture) {
+        try {
+            Enigma.runInConsole(capture, new Runnable() {
+                public void run() {
+                    shell.processCommand(command.clone());
+                }
+            });
+        }
+        finally {
+            capture.getOutputStream().flush(); // the grid is read as soon as this returns
+        }
+    }
+
+
+    // mirrors a MemoryTextWindow below the status line, writing only changed cells
+    private static class GridView extends Widget {
+        private final MemoryTextWindow grid;
+
+
+        GridView(TextWindow window, MemoryTextWindow grid) {
+            super(window, 0, 1, grid.getColumns(), grid.getRows());
+            this.grid = grid;
+        }
+
+
+        protected void paint() {
+            for (int y = 0; y < getHeight(); y++)
+                for (int x = 0; x < getWidth(); x++)
+                    put(x, y, grid.getChar(x, y), grid.getAttributes(x, y));
+        }
+    }
+}
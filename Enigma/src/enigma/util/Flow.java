@@ -0,0 +1,74 @@
+package enigma.util;
+
+/**
+ * Interfaces for publishing a stream of items to subscribers with demand-based
+ * backpressure:  a publisher only sends a subscriber as many items as it has
+ * requested.  These have the same shape and contract as
+ * <code>java.util.concurrent.Flow</code>, which is not available on all the Java
+ * versions Enigma supports, so adapting between the two is a matter of forwarding
+ * each method.
+ *
+ *@status.experimental
+ */
+public final class Flow {
+    private Flow() {
+    }
+
+
+    /**
+     * A producer of items, which it sends to each subscriber as they are requested.
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds a subscriber.  The publisher calls the subscriber's
+         * <code>onSubscribe</code> method, and then delivers items, an error or
+         * completion to it as described by {@link Subscriber}.  A publisher which
+         * cannot accept the subscriber reports an error to it instead.
+         *
+         *@throws NullPointerException if <code>subscriber</code> is <code>null</code>
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+
+    /**
+     * A receiver of items.  Its methods are called in order, never concurrently:
+     * <code>onSubscribe</code> once, then <code>onNext</code> at most as many times as
+     * items have been requested through the subscription, and finally either
+     * <code>onError</code> or <code>onComplete</code> if the stream ends.
+     */
+    public interface Subscriber<T> {
+        /** Invoked before any other method, with the subscription through which items are requested. */
+        void onSubscribe(Subscription subscription);
+
+
+        /** Invoked with the next item. */
+        void onNext(T item);
+
+
+        /** Invoked if the stream ends because of an error;  no further methods are invoked. */
+        void onError(Throwable throwable);
+
+
+        /** Invoked when the stream ends normally;  no further methods are invoked. */
+        void onComplete();
+    }
+
+
+    /**
+     * The link between a publisher and one of its subscribers.
+     */
+    public interface Subscription {
+        /**
+         * Adds <code>n</code> items to the number the subscriber is prepared to
+         * receive.  A non-positive <code>n</code> causes the subscriber's
+         * <code>onError</code> to be invoked with an
+         * <code>IllegalArgumentException</code>.
+         */
+        void request(long n);
+
+
+        /** Stops the delivery of items, eventually;  items may still arrive for a short time. */
+        void cancel();
+    }
+}
@@ -0,0 +1,114 @@
+import java.awt.Canvas;
+import java.awt.EventQueue;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import enigma.console.MemoryTextWindow;
+import enigma.console.TextAttributes;
+import enigma.event.TextPasteListener;
+import enigma.event.TextWindowEvent;
+
+/**
+ * A MemoryTextWindow for the input tests, which delivers typed keys and pasted text
+ * to its listeners on the event dispatch thread, as a real window does, and records
+ * the text written to it.
+ */
+public class KeyWindow extends MemoryTextWindow {
+	private final Canvas source = new Canvas();
+	private final List<KeyListener> keyListeners = new ArrayList<KeyListener>();
+	private final List<TextPasteListener> pasteListeners = new ArrayList<TextPasteListener>();
+	private final StringBuffer text = new StringBuffer();
+
+	public KeyWindow() {
+		super(80, 25);
+	}
+
+	public synchronized void addKeyListener(KeyListener l) {
+		keyListeners.add(l);
+	}
+
+	public synchronized void removeKeyListener(KeyListener l) {
+		keyListeners.remove(l);
+	}
+
+	public synchronized void addTextPasteListener(TextPasteListener l) {
+		pasteListeners.add(l);
+	}
+
+	public synchronized void removeTextPasteListener(TextPasteListener l) {
+		pasteListeners.remove(l);
+	}
+
+	public synchronized void output(char c, TextAttributes attributes) {
+		synchronized (text) {
+			text.append(c);
+		}
+		super.output(c, attributes);
+	}
+
+	// the text written to the window so far
+	public String text() {
+		synchronized (text) {
+			return text.toString();
+		}
+	}
+
+	// delivers a KEY_TYPED event for each character
+	public void type(String text) throws Exception {
+		deliver(text, false);
+	}
+
+	// delivers KEY_PRESSED, KEY_TYPED and KEY_RELEASED events for each character, as
+	// a keyboard does
+	public void press(String text) throws Exception {
+		deliver(text, true);
+	}
+
+	// delivers the text in a single paste event
+	public void paste(final String text) throws Exception {
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+				TextWindowEvent e = new TextWindowEvent(KeyWindow.this, text);
+				for (TextPasteListener l : pasteListeners())
+					l.textPasted(e);
+			}
+		});
+	}
+
+	private void deliver(final String text, final boolean press) throws Exception {
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+				for (int i = 0; i < text.length(); i++) {
+					char c = text.charAt(i);
+					int code = c == '\n' ? KeyEvent.VK_ENTER : KeyEvent.getExtendedKeyCodeForChar(c);
+					if (press)
+						fire(KeyEvent.KEY_PRESSED, code, c);
+					fire(KeyEvent.KEY_TYPED, KeyEvent.VK_UNDEFINED, c);
+					if (press)
+						fire(KeyEvent.KEY_RELEASED, code, c);
+				}
+			}
+		});
+	}
+
+	private void fire(int id, int code, char c) {
+		KeyEvent e = new KeyEvent(source, id, System.currentTimeMillis(), 0, code, c);
+		for (KeyListener l : keyListeners()) {
+			switch (id) {
+				case KeyEvent.KEY_PRESSED:  l.keyPressed(e); break;
+				case KeyEvent.KEY_TYPED:    l.keyTyped(e); break;
+				case KeyEvent.KEY_RELEASED: l.keyReleased(e); break;
+			}
+		}
+	}
+
+	private synchronized List<KeyListener> keyListeners() {
+		return new ArrayList<KeyListener>(keyListeners);
+	}
+
+	private synchronized List<TextPasteListener> pasteListeners() {
+		return new ArrayList<TextPasteListener>(pasteListeners);
+	}
+}
@@ -0,0 +1,79 @@
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.console.terminal.AnsiOutputStream;
+
+/**
+ * Switches to the alternate screen and back, both through the ANSI private mode
+ * sequences and directly.  Output on the alternate screen must not reach the
+ * scrollback, and leaving it must bring back the primary screen and cursor as they
+ * were.
+ */
+public class TestAlternateScreen {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testAnsi();
+		testWindow();
+		System.out.println(passed ? "PASS: alternate screen" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testAnsi() throws Exception {
+		MemoryTextWindow window = new MemoryTextWindow(20, 5);
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		AnsiOutputStream out = new AnsiOutputStream(console);
+		out.write("main\033[?1049h".getBytes("iso-8859-1"));
+		out.flush();
+		check(window.isAlternateScreen(), "ANSI: ESC[?1049h did not switch screens");
+		check(TestAnsiOutputStream.row(window, 0).length() == 0, "ANSI: alternate screen was not cleared");
+		out.write("\033[?1049l".getBytes("iso-8859-1"));
+		out.flush();
+		check(!window.isAlternateScreen(), "ANSI: ESC[?1049l did not switch back");
+	}
+
+
+	private static void testWindow() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		window.output("one\ntwo");
+		String primary = TestScrollRegion.export(window);
+
+		window.setAlternateScreen(true);
+		for (int i = 0; i < 50; i++)
+			window.output("full screen " + i + "\n");
+		check(window.getRows() == 5, "window: alternate screen has " + window.getRows() + " rows");
+		check(screen(window).indexOf("full screen 49") != -1, "window: alternate screen shows \"" + screen(window) + "\"");
+		check(TestScrollRegion.export(window).equals(primary), "window: alternate screen output reached the history");
+		window.setAlternateScreen(false);
+
+		String restored = TestScrollRegion.export(window);
+		check(restored.equals(primary), "window: primary screen came back as \"" + restored + "\"");
+		check(window.getCursorX() == 3 && window.getCursorY() == 1, 
+				"window: cursor came back at " + window.getCursorX() + ", " + window.getCursorY());
+
+		window.setAlternateScreen(true);
+		check(screen(window).trim().length() == 0, "window: alternate screen was not cleared on entry");
+		window.setAlternateScreen(false);
+	}
+
+
+	// the text of the screen currently displayed, read through a selection
+	private static String screen(Java2DTextWindow window) throws Exception {
+		window.selectAll();
+		Transferable copy = window.getSelectionContents();
+		window.clearSelection();
+		return (String) copy.getTransferData(DataFlavor.stringFlavor);
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
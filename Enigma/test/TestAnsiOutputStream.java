@@ -0,0 +1,96 @@
+import java.awt.Color;
+
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.console.TextAttributes;
+import enigma.console.terminal.AnsiOutputStream;
+
+/**
+ * Writes escape sequences through an AnsiOutputStream to a console on a
+ * MemoryTextWindow.  An invalid escape sequence must be discarded, and the text after
+ * it shown as it was written rather than taken as part of the escape;  and 24-bit
+ * colors must be shown as written without adding every combination of them to the
+ * shared TextAttributes palette.
+ */
+public class TestAnsiOutputStream {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testInvalidSequences();
+		testTrueColor();
+		System.out.println(passed ? "PASS: ANSI output" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// the byte after an invalid sequence is shown, not interpreted as its final character
+	private static void testInvalidSequences() throws Exception {
+		check("\033[1?hello", "hello", "misplaced private mode marker");
+		check("\033[?1?hello", "hello", "second private mode marker");
+		check("\033[1!hello", "hello", "invalid final character");
+		String[] split = { "\033", "xhello" };
+		check(split, "hello", "escape without a bracket"); // ESC x is discarded
+	}
+
+
+	// thousands of distinct 24-bit colors are shown, and add next to nothing to the palette
+	private static void testTrueColor() throws Exception {
+		MemoryTextWindow window = new MemoryTextWindow(80, 25);
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		AnsiOutputStream out = new AnsiOutputStream(console);
+		int before = TextAttributes.getInstance(new Color(1, 2, 3), new Color(4, 5, 6)).getID();
+		int count = 20000;
+		for (int i = 0; i < count; i++) {
+			int r = i & 0xFF;
+			int g = (i >> 8) & 0xFF;
+			out.write(("\033[38;2;" + r + ";" + g + ";7;48;2;0;0;" + (i % 200) + "m" + (char) ('a' + i % 26)).getBytes("iso-8859-1"));
+		}
+		out.write("\033[0m".getBytes("iso-8859-1"));
+		out.flush();
+		int after = TextAttributes.getInstance(new Color(1, 2, 4), new Color(4, 5, 6)).getID();
+		check(after - before < 100, "true color: " + (after - before) + " entries added to the palette");
+
+		int last = count - 1; // fills the last column of the row above the cursor
+		TextAttributes a = window.getAttributes(79, window.getCursorY() - 1);
+		check(a.getForeground().equals(new Color(last & 0xFF, (last >> 8) & 0xFF, 7)) && a.getBackground().equals(new Color(0, 0, last % 200)),
+				"true color: last character shown in " + a);
+	}
+
+
+	private static void check(String written, String expected, String test) throws Exception {
+		check(new String[] { written }, expected, test);
+	}
+
+
+	// writes each string in a separate write, and checks the first row of the window
+	private static void check(String[] written, String expected, String test) throws Exception {
+		MemoryTextWindow window = new MemoryTextWindow(80, 25);
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		AnsiOutputStream out = new AnsiOutputStream(console);
+		for (int i = 0; i < written.length; i++)
+			out.write(written[i].getBytes("iso-8859-1"));
+		out.flush();
+		String row = row(window, 0);
+		check(row.equals(expected), test + ": shows \"" + row + "\"");
+	}
+
+
+	// the text of a row, without trailing spaces
+	static String row(MemoryTextWindow window, int y) {
+		StringBuffer result = new StringBuffer();
+		for (int x = 0; x < window.getColumns(); x++)
+			result.append(window.getChar(x, y));
+		int end = result.length();
+		while (end > 0 && result.charAt(end - 1) == ' ')
+			end--;
+		return result.substring(0, end);
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
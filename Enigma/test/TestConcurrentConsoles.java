@@ -0,0 +1,62 @@
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+
+/**
+ * Runs several consoles in one virtual machine, each with its own thread blocked in
+ * readLine() at the same time, and types a different line into each of them on the
+ * event dispatch thread.  Every reader must receive exactly the line typed into its
+ * own console, whatever order the lines are typed in.
+ */
+public class TestConcurrentConsoles {
+	private static final int CONSOLES = 8;
+
+	public static void main(String[] args) throws Exception {
+		final Console[] consoles = new Console[CONSOLES];
+		final KeyWindow[] windows = new KeyWindow[CONSOLES];
+		final String[] results = new String[CONSOLES];
+		Thread[] readers = new Thread[CONSOLES];
+		for (int i = 0; i < CONSOLES; i++) {
+			windows[i] = new KeyWindow();
+			consoles[i] = new DefaultConsoleImpl(windows[i]);
+			final int index = i;
+			readers[i] = new Thread("reader " + i) {
+				public void run() {
+					results[index] = consoles[index].readLine();
+				}
+			};
+			readers[i].start();
+		}
+
+		// wait until every reader is waiting for input at the same time
+		for (int i = 0; i < CONSOLES; i++) {
+			while (readers[i].getState() != Thread.State.WAITING)
+				Thread.sleep(10);
+		}
+
+		// type into the consoles in reverse order;  each reader must wake as soon as
+		// its own line is complete, without waiting for the consoles before it
+		boolean passed = true;
+		for (int i = CONSOLES - 1; i >= 0; i--) {
+			windows[i].type("line " + i + "\n");
+			readers[i].join(5000);
+			if (readers[i].isAlive()) {
+				System.out.println("FAIL: reader " + i + " did not receive its line");
+				passed = false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (readers[j].getState() != Thread.State.WAITING) {
+					System.out.println("FAIL: reader " + j + " stopped waiting when console " + i + " received a line");
+					passed = false;
+				}
+			}
+		}
+		for (int i = 0; i < CONSOLES; i++) {
+			if (!("line " + i).equals(results[i])) {
+				System.out.println("FAIL: reader " + i + " received \"" + results[i] + "\"");
+				passed = false;
+			}
+		}
+		System.out.println(passed ? "PASS: " + CONSOLES + " consoles read concurrently" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+}
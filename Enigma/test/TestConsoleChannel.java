@@ -0,0 +1,95 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.remote.RemoteConsoleServer;
+
+/**
+ * Writes encoded text to consoles' channels.  A character whose bytes are split
+ * between two buffers, or two writes, must still be decoded as one character,
+ * whether the buffers are heap or direct (which is only put to the test when the
+ * default charset, in which consoles decode output, is a multi-byte one such as
+ * UTF-8);  and a remote console's channel must pass the bytes of a gathering write
+ * through to its stream unchanged.
+ */
+public class TestConsoleChannel {
+	private static final String TEXT = "caf\u00e9 \u20ac5 \u00fcber";
+
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testSplitCharacters(false);
+		testSplitCharacters(true);
+		testRemoteChannel();
+		System.out.println(passed ? "PASS: console channels" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// splits the encoded text at every position, between two writes and between the
+	// two buffers of one gathering write
+	private static void testSplitCharacters(boolean direct) throws Exception {
+		String kind = direct ? "direct" : "heap";
+		String charset = Charset.defaultCharset().name();
+		byte[] encoded = TEXT.getBytes(charset);
+		String decoded = new String(encoded, charset); // TEXT, unless the charset lacks some of its characters
+		for (int split = 0; split <= encoded.length; split++) {
+			KeyWindow window = new KeyWindow();
+			DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+			GatheringByteChannel channel = console.getChannel();
+
+			ByteBuffer first = buffer(encoded, 0, split, direct);
+			ByteBuffer second = buffer(encoded, split, encoded.length, direct);
+			channel.write(first);
+			channel.write(second);
+			check(!first.hasRemaining() && !second.hasRemaining(), kind + ": bytes left in the buffers");
+			channel.write(new ByteBuffer[] { buffer(encoded, 0, split, direct), buffer(encoded, split, encoded.length, !direct) });
+			console.getOutputStream().flush();
+
+			String expected = decoded + decoded;
+			if (!window.text().equals(expected)) {
+				check(false, kind + ": split at byte " + split + " shows \"" + window.text() + "\"");
+				break;
+			}
+		}
+	}
+
+
+	// a remote console's channel writes the bytes to its stream as they are
+	private static void testRemoteChannel() throws Exception {
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		RemoteConsoleServer console = new RemoteConsoleServer(new ByteArrayInputStream(new byte[0]), sent);
+		console.getOutputStream().flush();
+		int start = sent.size();
+
+		byte[] encoded = TEXT.getBytes("utf-8");
+		GatheringByteChannel channel = console.getChannel();
+		long count = channel.write(new ByteBuffer[] { buffer(encoded, 0, 4, true), buffer(encoded, 4, encoded.length, false) });
+		channel.close();
+		check(count == encoded.length, "remote: wrote " + count + " of " + encoded.length + " bytes");
+		check(!channel.isOpen(), "remote: channel still open after close");
+
+		byte[] received = sent.toByteArray();
+		String text = new String(received, start, received.length - start, "utf-8");
+		check(text.equals(TEXT), "remote: sent \"" + text + "\"");
+	}
+
+
+	private static ByteBuffer buffer(byte[] b, int start, int end, boolean direct) {
+		ByteBuffer result = direct ? ByteBuffer.allocateDirect(end - start) : ByteBuffer.allocate(end - start);
+		result.put(b, start, end - start);
+		result.flip();
+		return result;
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
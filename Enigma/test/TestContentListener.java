@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.event.TextWindowContentListener;
+import enigma.event.TextWindowEvent;
+import enigma.event.TextWindowListener;
+
+/**
+ * Checks that content changes are reported to content listeners only, and that a
+ * listener which only handles resize events still compiles and runs unchanged.
+ */
+public class TestContentListener {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testResizeListener();
+		testContentListener();
+		System.out.println(passed ? "PASS: content listener" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// a listener written against the original single method interface
+	private static void testResizeListener() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		final int[] resized = new int[1];
+		window.addTextWindowListener(new TextWindowListener() {
+			public void textWindowResized(TextWindowEvent e) {
+				resized[0]++;
+			}
+		});
+		window.output("hello");
+		settle();
+		check(resized[0] == 0, "resize listener: " + resized[0] + " events");
+	}
+
+
+	private static void testContentListener() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		window.output("before");
+		final List<TextWindowEvent> events = new ArrayList<TextWindowEvent>();
+		TextWindowContentListener listener = new TextWindowContentListener() {
+			public void contentChanged(TextWindowEvent e) {
+				synchronized (events) {
+					events.add(e);
+				}
+			}
+		};
+		window.addTextWindowContentListener(listener);
+		window.output(0, 2, 'x');
+		settle();
+		synchronized (events) {
+			check(events.size() == 1, "content listener: " + events.size() + " events");
+			if (events.size() == 1) {
+				TextWindowEvent e = events.get(0);
+				check(e.getID() == TextWindowEvent.CONTENT_CHANGED, "content listener: id " + e.getID());
+				check(e.getSpanCount() == 1 && e.getSpanRow(0) == 2, 
+						"content listener: " + e.getSpanCount() + " spans");
+			}
+			events.clear();
+		}
+
+		window.removeTextWindowContentListener(listener);
+		window.output(0, 3, 'y');
+		settle();
+		synchronized (events) {
+			check(events.isEmpty(), "removed listener: " + events.size() + " events");
+		}
+	}
+
+
+	// waits for the render clock to flush pending changes on the event dispatch thread
+	private static void settle() throws Exception {
+		Thread.sleep(200);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() { }
+		});
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
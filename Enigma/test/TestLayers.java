@@ -0,0 +1,107 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import enigma.console.TextAttributes;
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.console.java2d.TextLayer;
+import enigma.core.Enigma;
+
+/**
+ * Paints a window with overlay layers into an image, and checks the background color
+ * of individual cells.  Opaque layer cells must cover the grid in z order, transparent
+ * ones must show it, hidden and disposed layers must not be drawn, and layers must
+ * stay put on the screen as the grid scrolls beneath them.
+ */
+public class TestLayers {
+	private static final TextAttributes RED = new TextAttributes(Color.white, Color.red);
+	private static final TextAttributes BLUE = new TextAttributes(Color.white, Color.blue);
+
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testCompositing();
+		testVisibility();
+		testScrolling();
+		System.out.println(passed ? "PASS: layers" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testCompositing() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(10, 3, 3);
+		window.output("abcdefghij");
+		TextLayer top = window.createLayer(1, 1, 2);
+		TextLayer bottom = window.createLayer(2, 1, 1); // created later, but drawn below
+		top.setLocation(2, 1);
+		bottom.setLocation(2, 1);
+		top.output(0, 0, ' ', BLUE);
+		bottom.output(0, 0, ' ', RED);
+		bottom.output(1, 0, ' ', RED);
+		BufferedImage image = paint(window);
+		check(background(window, image, 2, 1).equals(Color.blue), "compositing: upper layer is not on top");
+		check(background(window, image, 3, 1).equals(Color.red), "compositing: lower layer is not shown");
+		check(background(window, image, 4, 1).equals(gridBackground()), "compositing: grid is not shown beside the layers");
+		bottom.clear(1, 0);
+		check(background(window, paint(window), 3, 1).equals(gridBackground()), "compositing: cleared cell is not transparent");
+		check(TestScrollRegion.export(window).startsWith("abcdefghij"), "compositing: the grid was modified");
+	}
+
+
+	private static void testVisibility() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(10, 3, 3);
+		TextLayer layer = window.createLayer(1, 1, 0);
+		layer.output(0, 0, ' ', RED);
+		layer.setVisible(false);
+		check(background(window, paint(window), 0, 0).equals(gridBackground()), "visibility: hidden layer was drawn");
+		layer.setVisible(true);
+		check(background(window, paint(window), 0, 0).equals(Color.red), "visibility: shown layer was not drawn");
+		layer.dispose();
+		check(background(window, paint(window), 0, 0).equals(gridBackground()), "visibility: disposed layer was drawn");
+	}
+
+
+	private static void testScrolling() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(10, 3, 3);
+		TextLayer layer = window.createLayer(1, 1, 0);
+		layer.setLocation(5, 1);
+		layer.output(0, 0, ' ', RED);
+		for (int i = 0; i < 10; i++)
+			window.output(i + "\n");
+		BufferedImage image = paint(window);
+		check(background(window, image, 5, 1).equals(Color.red), "scrolling: layer left its screen position");
+		check(background(window, image, 5, 0).equals(gridBackground()), "scrolling: layer scrolled with the grid");
+	}
+
+
+	private static BufferedImage paint(Java2DTextWindow window) {
+		int width = window.getColumns() * window.getCharWidth();
+		int height = window.getRows() * window.getCharHeight();
+		window.setSize(width, height);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setClip(0, 0, width, height);
+		window.paint(g);
+		g.dispose();
+		return image;
+	}
+
+
+	// the color of the top left pixel of a cell, which no glyph reaches
+	private static Color background(Java2DTextWindow window, BufferedImage image, int x, int y) {
+		return new Color(image.getRGB(x * window.getCharWidth(), y * window.getCharHeight()));
+	}
+
+
+	private static Color gridBackground() {
+		return Enigma.getSystemTextAttributes("attributes.console.default").getBackground();
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.TextWindow;
+import enigma.util.Flow;
+
+/**
+ * Subscribes to consoles' line publishers and types lines into them on the event
+ * dispatch thread.  A subscriber must receive only as many lines as it has requested,
+ * the rest waiting as typeahead;  the console must be editing only while the
+ * subscriber is waiting for a line, and must stop when the subscription is cancelled;
+ * the end of input must complete the subscription;  and a second subscriber must be
+ * rejected while the first is subscribed, without taking any of its lines.
+ */
+public class TestLinePublisher {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testDemand();
+		testCancel();
+		testCompletion();
+		testSecondSubscriber();
+		System.out.println(passed ? "PASS: line publisher" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// lines beyond the demand wait until they are requested
+	private static void testDemand() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		Recorder recorder = new Recorder();
+		console.getLinePublisher().subscribe(recorder);
+		recorder.subscription.request(2);
+		syncEventThread();
+		check(window.getCursorType() == TextWindow.CURSOR_INSERT, "demand: not editing while lines are requested");
+
+		window.type("one\ntwo\nthree\n");
+		syncEventThread();
+		check(recorder.lines().size() == 2, "demand: " + recorder.lines().size() + " lines delivered for a demand of 2");
+		check(window.getCursorType() == TextWindow.CURSOR_INVISIBLE, "demand: still editing once the demand was met");
+
+		recorder.subscription.request(1);
+		recorder.await(3);
+		check(recorder.lines().equals(list(new String[] { "one", "two", "three" })), "demand: received " + recorder.lines());
+	}
+
+
+	// cancelling leaves edit mode, and later lines go to readLine instead
+	private static void testCancel() throws Exception {
+		KeyWindow window = new KeyWindow();
+		final Console console = new DefaultConsoleImpl(window);
+		Recorder recorder = new Recorder();
+		console.getLinePublisher().subscribe(recorder);
+		recorder.subscription.request(1);
+		syncEventThread();
+		check(window.getCursorType() == TextWindow.CURSOR_INSERT, "cancel: not editing while a line is requested");
+
+		recorder.subscription.cancel();
+		syncEventThread();
+		check(window.getCursorType() == TextWindow.CURSOR_INVISIBLE, "cancel: still editing after the subscription was cancelled");
+
+		window.type("typed\n");
+		final String[] result = new String[1];
+		Thread reader = new Thread() {
+			public void run() {
+				result[0] = console.readLine();
+			}
+		};
+		reader.start();
+		reader.join(5000);
+		check("typed".equals(result[0]), "cancel: readLine returned \"" + result[0] + "\"");
+		check(recorder.lines().isEmpty(), "cancel: cancelled subscriber received " + recorder.lines());
+	}
+
+
+	// the end of input completes the subscription after the lines before it
+	private static void testCompletion() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		Recorder recorder = new Recorder();
+		console.getLinePublisher().subscribe(recorder);
+		recorder.subscription.request(10);
+		syncEventThread();
+		window.type("last\n\u0004");
+		recorder.awaitDone();
+		check(recorder.completed, "completion: subscription did not complete at the end of input");
+		check(recorder.error == null, "completion: subscriber received " + recorder.error);
+		check(recorder.lines().equals(list(new String[] { "last" })), "completion: received " + recorder.lines());
+	}
+
+
+	// only one subscriber at a time, and a rejected subscriber's requests take no lines
+	private static void testSecondSubscriber() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		Recorder first = new Recorder();
+		console.getLinePublisher().subscribe(first);
+		first.subscription.request(1);
+		syncEventThread();
+		window.paste("first\nsecond\n"); // the second line waits for the next request
+
+		Recorder second = new Recorder(1);
+		console.getLinePublisher().subscribe(second);
+		second.awaitDone();
+		check(second.error instanceof IllegalStateException, "second subscriber: received " + second.error);
+		check(second.lines().isEmpty(), "second subscriber: rejected subscriber received " + second.lines());
+
+		first.subscription.request(1);
+		first.await(2);
+		check(first.lines().equals(list(new String[] { "first", "second" })), "second subscriber: first subscriber received " + first.lines());
+	}
+
+
+	// waits until the event thread has run everything posted to it so far
+	private static void syncEventThread() throws Exception {
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+
+
+	private static List<String> list(String[] lines) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < lines.length; i++)
+			result.add(lines[i]);
+		return result;
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+
+
+	// records what a subscriber receives
+	private static class Recorder implements Flow.Subscriber<String> {
+		volatile Flow.Subscription subscription;
+		volatile boolean completed;
+		volatile Throwable error;
+		private final List<String> lines = new ArrayList<String>();
+		private final long initialRequest;
+
+		Recorder() {
+			this(0);
+		}
+
+		// requests lines from within onSubscribe, if initialRequest is positive
+		Recorder(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initialRequest > 0)
+				subscription.request(initialRequest);
+		}
+
+		public synchronized void onNext(String line) {
+			lines.add(line);
+			notifyAll();
+		}
+
+		public synchronized void onError(Throwable throwable) {
+			error = throwable;
+			notifyAll();
+		}
+
+		public synchronized void onComplete() {
+			completed = true;
+			notifyAll();
+		}
+
+		synchronized List<String> lines() {
+			return new ArrayList<String>(lines);
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (lines.size() < count && System.currentTimeMillis() < end)
+				wait(100);
+		}
+
+		synchronized void awaitDone() throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (!completed && error == null && System.currentTimeMillis() < end)
+				wait(100);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+import java.awt.Color;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.console.TextAttributes;
+
+/**
+ * Exercises asynchronous console output under each overflow policy.  The window can
+ * be held shut, so that the pipeline's consumer stalls and the queue fills up:  a
+ * blocked writer must not keep other threads from the console's writer lock, the
+ * drop-oldest policy must discard lines rather than wait, the spill policy must keep
+ * every line, lines written by several threads must arrive whole and in each
+ * thread's order, and flush() must not return until everything queued has reached
+ * the window.
+ */
+public class TestOutputPipeline {
+	private static final int CAPACITY = 4;
+	private static final int LINES = 40;
+
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testBlock();
+		testDropOldest();
+		testSpill();
+		testThreadOrder();
+		testFlush();
+		System.out.println(passed ? "PASS: asynchronous output" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// a blocked writer waits for room, without holding the writer's lock
+	private static void testBlock() throws Exception {
+		GateWindow window = new GateWindow();
+		final DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		console.startAsynchronousOutput(CAPACITY, DefaultConsoleImpl.OVERFLOW_BLOCK);
+		window.close();
+		Thread writer = writeLines(console.getWriter(), "line", LINES);
+		writer.join(300);
+		check(writer.isAlive(), "block: writer did not wait for room");
+
+		Thread other = new Thread() {
+			public void run() {
+				console.setTextAttributes(TextAttributes.getInstance(Color.red, Color.black));
+			}
+		};
+		other.start();
+		other.join(2000);
+		check(!other.isAlive(), "block: setTextAttributes waited for the blocked writer");
+
+		window.open();
+		writer.join(5000);
+		check(!writer.isAlive(), "block: writer did not finish once the window caught up");
+		console.getWriter().flush();
+		checkLines("block", window.lines(), "line", LINES);
+		check(console.getDroppedLineCount() == 0, "block: lines were dropped");
+		console.stopAsynchronousOutput();
+	}
+
+
+	// lines are discarded, oldest first, rather than waiting for room
+	private static void testDropOldest() throws Exception {
+		GateWindow window = new GateWindow();
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		console.startAsynchronousOutput(CAPACITY, DefaultConsoleImpl.OVERFLOW_DROP_OLDEST);
+		window.close();
+		Thread writer = writeLines(console.getWriter(), "line", LINES);
+		writer.join(5000);
+		check(!writer.isAlive(), "drop-oldest: writer waited for room");
+		window.open();
+		console.getWriter().flush();
+
+		List<String> lines = window.lines();
+		long dropped = console.getDroppedLineCount();
+		check(dropped > 0, "drop-oldest: no lines were dropped");
+		check(lines.size() + dropped == LINES, "drop-oldest: " + lines.size() + " lines shown and " + dropped + " dropped");
+		check(lines.contains("line " + (LINES - 1)), "drop-oldest: the newest line was dropped");
+		int previous = -1;
+		for (int i = 0; i < lines.size(); i++) {
+			int n = Integer.parseInt(lines.get(i).substring(5));
+			check(n > previous, "drop-oldest: lines out of order");
+			previous = n;
+		}
+		console.stopAsynchronousOutput();
+	}
+
+
+	// lines which do not fit are kept, in order, rather than waiting for room
+	private static void testSpill() throws Exception {
+		GateWindow window = new GateWindow();
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		console.startAsynchronousOutput(CAPACITY, DefaultConsoleImpl.OVERFLOW_SPILL);
+		window.close();
+		Thread writer = writeLines(console.getWriter(), "line", LINES);
+		writer.join(5000);
+		check(!writer.isAlive(), "spill: writer waited for room");
+		window.open();
+		console.getWriter().flush();
+		checkLines("spill", window.lines(), "line", LINES);
+		check(console.getDroppedLineCount() == 0, "spill: lines were dropped");
+		console.stopAsynchronousOutput();
+	}
+
+
+	// lines written by several threads at once arrive whole and in each thread's order
+	private static void testThreadOrder() throws Exception {
+		final int threads = 4;
+		GateWindow window = new GateWindow();
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		console.startAsynchronousOutput(CAPACITY, DefaultConsoleImpl.OVERFLOW_BLOCK);
+		Thread[] writers = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+			writers[i] = writeLines(console.getWriter(), "thread" + i, LINES * 10);
+		for (int i = 0; i < threads; i++)
+			writers[i].join();
+		console.getWriter().flush();
+
+		List<String> lines = window.lines();
+		int[] next = new int[threads];
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			int thread = line.startsWith("thread") && line.length() > 6 ? line.charAt(6) - '0' : -1;
+			if (thread < 0 || thread >= threads || !line.equals("thread" + thread + " " + next[thread])) {
+				check(false, "thread order: unexpected line \"" + line + "\"");
+				break;
+			}
+			next[thread]++;
+		}
+		check(lines.size() == threads * LINES * 10, "thread order: " + lines.size() + " lines shown");
+		console.stopAsynchronousOutput();
+	}
+
+
+	// flush waits until everything queued, by any thread, has reached the window
+	private static void testFlush() throws Exception {
+		final GateWindow window = new GateWindow();
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		console.startAsynchronousOutput(CAPACITY, DefaultConsoleImpl.OVERFLOW_SPILL);
+		window.close();
+		writeLines(console.getWriter(), "line", LINES).join();
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e) {
+				}
+				window.open();
+			}
+		}.start();
+		console.getWriter().flush();
+		checkLines("flush", window.lines(), "line", LINES);
+		console.stopAsynchronousOutput();
+	}
+
+
+	private static Thread writeLines(final PrintWriter out, final String prefix, final int count) {
+		Thread result = new Thread(prefix) {
+			public void run() {
+				for (int i = 0; i < count; i++)
+					out.print(prefix + " " + i + "\n");
+			}
+		};
+		result.start();
+		return result;
+	}
+
+
+	private static void checkLines(String test, List<String> lines, String prefix, int count) {
+		check(lines.size() == count, test + ": " + lines.size() + " of " + count + " lines shown");
+		for (int i = 0; i < Math.min(count, lines.size()); i++) {
+			if (!lines.get(i).equals(prefix + " " + i)) {
+				check(false, test + ": line " + i + " is \"" + lines.get(i) + "\"");
+				break;
+			}
+		}
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+
+
+	// a MemoryTextWindow which records the lines written to it, and whose output can
+	// be held up until the window is opened again
+	private static class GateWindow extends MemoryTextWindow {
+		private final StringBuffer text = new StringBuffer();
+		private boolean closed;
+
+		GateWindow() {
+			super(80, 25);
+		}
+
+		void close() {
+			synchronized (text) {
+				closed = true;
+			}
+		}
+
+		void open() {
+			synchronized (text) {
+				closed = false;
+				text.notifyAll();
+			}
+		}
+
+		public void output(char[] c, int offset, int count, TextAttributes attributes) {
+			synchronized (text) {
+				while (closed) {
+					try {
+						text.wait();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+				text.append(c, offset, count);
+			}
+			super.output(c, offset, count, attributes);
+		}
+
+		// the complete lines written so far
+		List<String> lines() {
+			List<String> result = new ArrayList<String>();
+			synchronized (text) {
+				int start = 0;
+				for (int i = 0; i < text.length(); i++) {
+					if (text.charAt(i) == '\n') {
+						result.add(text.substring(start, i));
+						start = i + 1;
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.TextWindow;
+
+/**
+ * Pastes text into consoles, mixed with typed keys, on the event dispatch thread.
+ * Text pasted while no line is being read must be replayed in its place among the
+ * keys typed before and after it;  and while a password is being read, only the
+ * first pasted line may be taken, without echoing any of the others, which remain
+ * typeahead for the next reads.
+ */
+public class TestPaste {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testPasteBeforeKeys();
+		testPasteBetweenKeys();
+		testPastedPassword();
+		System.out.println(passed ? "PASS: paste" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// text pasted ahead of typed keys comes first in the line
+	private static void testPasteBeforeKeys() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		window.paste("abc");
+		window.type("x\n");
+		String result = readLine(console);
+		check("abcx".equals(result), "paste before keys: read \"" + result + "\"");
+	}
+
+
+	// the lines of pasted text are completed in the order they were typed and pasted
+	private static void testPasteBetweenKeys() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		window.type("a");
+		window.paste("b\nc");
+		window.type("d\n");
+		String first = readLine(console);
+		String second = readLine(console);
+		check("ab".equals(first) && "cd".equals(second), "paste between keys: read \"" + first + "\" and \"" + second + "\"");
+	}
+
+
+	// a password takes only the first pasted line, and echoes none of them
+	private static void testPastedPassword() throws Exception {
+		KeyWindow window = new KeyWindow();
+		final Console console = new DefaultConsoleImpl(window);
+		final String[] password = new String[1];
+		Thread reader = new Thread() {
+			public void run() {
+				password[0] = console.readPassword();
+			}
+		};
+		reader.start();
+		long end = System.currentTimeMillis() + 5000;
+		while (window.getCursorType() != TextWindow.CURSOR_INSERT && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		window.paste("secret\nnext\nlast\n");
+		reader.join(5000);
+		check("secret".equals(password[0]), "password: read \"" + password[0] + "\"");
+		String echo = window.text();
+		check(echo.indexOf("secret") == -1 && echo.indexOf("next") == -1 && echo.indexOf("last") == -1,
+				"password: echoed \"" + echo + "\"");
+
+		String next = readLine(console);
+		String last = readLine(console);
+		check("next".equals(next) && "last".equals(last), "password: then read \"" + next + "\" and \"" + last + "\"");
+	}
+
+
+	private static String readLine(final Console console) throws Exception {
+		final String[] result = new String[1];
+		Thread reader = new Thread() {
+			public void run() {
+				result[0] = console.readLine();
+			}
+		};
+		reader.start();
+		reader.join(5000);
+		return result[0];
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
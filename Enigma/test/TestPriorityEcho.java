@@ -0,0 +1,112 @@
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+
+import javax.swing.SwingUtilities;
+
+import enigma.console.java2d.Java2DTextWindow;
+
+/**
+ * Floods a window with output from another thread while a key is handled.  While the
+ * key listener runs, the bulk writer must hold back, so that the echo is not queued
+ * behind the flood;  once the listener returns, the flood must carry on.
+ */
+public class TestPriorityEcho {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testPriority();
+		System.out.println(passed ? "PASS: priority echo" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testPriority() throws Exception {
+		final EchoWindow window = new EchoWindow(80, 25, 100);
+		final int[] written = new int[1];
+		final boolean[] stop = new boolean[1];
+		final String chunk = repeat('x', 256);
+		Thread flood = new Thread() {
+			public void run() {
+				while (!stop[0]) {
+					window.output(chunk);
+					synchronized (written) {
+						written[0]++;
+					}
+				}
+			}
+		};
+		flood.setDaemon(true);
+
+		final int[] progress = new int[1];
+		window.addKeyListener(new KeyAdapter() {
+			public void keyTyped(KeyEvent e) {
+				int before = count(written);
+				window.output(e.getKeyChar());
+				try {
+					Thread.sleep(10); // less than the longest a bulk write waits
+				}
+				catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				progress[0] = count(written) - before;
+			}
+		});
+
+		flood.start();
+		while (count(written) < 10)
+			Thread.sleep(1);
+		int worst = 0;
+		for (int i = 0; i < 20; i++) {
+			window.type('a');
+			worst = Math.max(worst, progress[0]);
+		}
+		int before = count(written);
+		Thread.sleep(50);
+		check(count(written) > before, "the flood did not resume after the key was handled");
+		stop[0] = true;
+		flood.join();
+		// a write which had already passed the check may finish while the key is handled
+		check(worst <= 1, "the flood wrote " + worst + " chunks while a key was handled");
+	}
+
+
+	private static int count(int[] written) {
+		synchronized (written) {
+			return written[0];
+		}
+	}
+
+
+	private static String repeat(char c, int count) {
+		StringBuffer result = new StringBuffer(count);
+		for (int i = 0; i < count; i++)
+			result.append(c);
+		return result.toString();
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+
+
+	// delivers typed keys without a display
+	private static class EchoWindow extends Java2DTextWindow {
+		EchoWindow(int columns, int rows, int scrollback) {
+			super(columns, rows, scrollback);
+		}
+
+
+		void type(final char c) throws Exception {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					processKeyEvent(new KeyEvent(EchoWindow.this, KeyEvent.KEY_TYPED, System.currentTimeMillis(), 
+							0, KeyEvent.VK_UNDEFINED, c));
+				}
+			});
+		}
+	}
+}
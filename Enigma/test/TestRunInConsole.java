@@ -0,0 +1,94 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.core.Enigma;
+
+/**
+ * Runs tasks in a capture console, as watch does.  Only the thread running the task
+ * may write to the capture console, threads it starts must keep the ordinary
+ * streams, and the System streams must be put back once the task returns.
+ */
+public class TestRunInConsole {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testScope();
+		testResize();
+		System.out.println(passed ? "PASS: run in console" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testScope() throws Exception {
+		PrintStream out = System.out;
+		ByteArrayOutputStream outside = new ByteArrayOutputStream();
+		PrintStream outsideStream = new PrintStream(outside, true);
+		System.setOut(outsideStream);
+		MemoryTextWindow grid = new MemoryTextWindow(20, 3);
+		final Console capture = new DefaultConsoleImpl(grid);
+		final Thread[] child = new Thread[1];
+		try {
+			Enigma.runInConsole(capture, new Runnable() {
+				public void run() {
+					System.out.print("inside");
+					child[0] = new Thread() {
+						public void run() {
+							System.out.print("child");
+						}
+					};
+					child[0].start();
+					try {
+						child[0].join();
+					}
+					catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			capture.getOutputStream().flush();
+			System.out.print("after");
+		}
+		finally {
+			PrintStream current = System.out;
+			System.setOut(out);
+			check(current == outsideStream, "streams: System.out was not restored");
+		}
+		check(row(grid, 0).equals("inside"), "scope: captured \"" + row(grid, 0) + "\"");
+		check(outside.toString().equals("childafter"), "scope: outside \"" + outside + "\"");
+	}
+
+
+	// the capture console follows its window when the window is resized
+	private static void testResize() throws Exception {
+		MemoryTextWindow grid = new MemoryTextWindow(5, 2);
+		Console capture = new DefaultConsoleImpl(grid);
+		grid.setSize(10, 3);
+		capture.getOutputStream().print("0123456789ab");
+		capture.getOutputStream().flush();
+		check(grid.getColumns() == 10 && grid.getRows() == 3, "resize: " + grid.getColumns() + "x" + grid.getRows());
+		check(row(grid, 0).equals("0123456789") && row(grid, 1).equals("ab"), 
+				"resize: \"" + row(grid, 0) + "\", \"" + row(grid, 1) + "\"");
+	}
+
+
+	private static String row(MemoryTextWindow window, int y) {
+		StringBuffer result = new StringBuffer();
+		for (int x = 0; x < window.getColumns(); x++)
+			result.append(window.getChar(x, y));
+		int end = result.length();
+		while (end > 0 && result.charAt(end - 1) == ' ')
+			end--;
+		return result.substring(0, end);
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+import java.awt.event.KeyEvent;
+
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+import enigma.console.java2d.Java2DTextWindow;
+
+/**
+ * Writes to a full window in a scroll pane with scroll lock on and off.  While scroll
+ * lock is on, the viewport must keep showing the rows the user was reading as output
+ * pushes them up;  otherwise, and once scroll lock is released, it must follow the
+ * output to the bottom.  Without a display the scroll pane is laid out by hand.
+ */
+public class TestScrollLock {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testScrollLock();
+		System.out.println(passed ? "PASS: scroll lock" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testScrollLock() throws Exception {
+		final LockWindow window = new LockWindow(20, 5, 10);
+		final JScrollPane pane = new JScrollPane(window, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, 
+				JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+		final JScrollBar bar = pane.getVerticalScrollBar();
+		final int rowHeight = window.getCharHeight();
+		for (int i = 0; i < 20; i++)
+			window.output("line " + i + "\n"); // fills the scrollback, so each line feed discards a row
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				pane.setSize(window.getColumns() * window.getCharWidth() + bar.getPreferredSize().width + 4, 
+						5 * rowHeight + 4);
+				pane.doLayout();
+				pane.getViewport().doLayout();
+				bar.setValue(2 * rowHeight); // the user scrolls back to read
+			}
+		});
+
+		window.press(KeyEvent.VK_SCROLL_LOCK);
+		check(window.isScrollLock(), "the Scroll Lock key did not turn scroll lock on");
+		window.output("more\n");
+		settle();
+		check(bar.getValue() == rowHeight, "locked: viewport at " + bar.getValue() + ", expected " + rowHeight);
+
+		int bottom = bar.getMaximum() - bar.getVisibleAmount();
+		window.press(KeyEvent.VK_SCROLL_LOCK);
+		check(!window.isScrollLock(), "the Scroll Lock key did not turn scroll lock off");
+		settle();
+		check(bar.getValue() == bottom, "released: viewport at " + bar.getValue() + ", expected " + bottom);
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				bar.setValue(2 * rowHeight);
+			}
+		});
+		window.output("more\n");
+		settle();
+		check(bar.getValue() == bottom, "unlocked: viewport at " + bar.getValue() + ", expected " + bottom);
+	}
+
+
+	// waits for the render clock to flush pending changes on the event dispatch thread
+	private static void settle() throws Exception {
+		Thread.sleep(200);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() { }
+		});
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+
+
+	// delivers key presses without a display
+	private static class LockWindow extends Java2DTextWindow {
+		LockWindow(int columns, int rows, int scrollback) {
+			super(columns, rows, scrollback);
+		}
+
+
+		void press(final int keyCode) throws Exception {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					processKeyEvent(new KeyEvent(LockWindow.this, KeyEvent.KEY_PRESSED, System.currentTimeMillis(), 
+							0, keyCode, KeyEvent.CHAR_UNDEFINED));
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,80 @@
+import java.io.StringWriter;
+
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.MemoryTextWindow;
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.console.java2d.TextWindowExporter;
+import enigma.console.terminal.AnsiOutputStream;
+
+/**
+ * Scrolls the middle rows of a window, both through the ANSI set scrolling region
+ * sequence and directly.  Line feeds at the bottom of the region must rotate only
+ * the rows inside it, leaving the rows around it and the scrollback alone.
+ */
+public class TestScrollRegion {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testAnsi();
+		testWindow();
+		System.out.println(passed ? "PASS: scroll regions" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testAnsi() throws Exception {
+		MemoryTextWindow window = new MemoryTextWindow(20, 5);
+		DefaultConsoleImpl console = new DefaultConsoleImpl(window);
+		AnsiOutputStream out = new AnsiOutputStream(console);
+		out.write("top\n1\n2\n3\nbottom\033[2;4r\033[4;1H\nA\nB".getBytes("iso-8859-1"));
+		out.flush();
+		String[] expected = { "top", "3", "A", "B", "bottom" };
+		for (int i = 0; i < expected.length; i++) {
+			String row = TestAnsiOutputStream.row(window, i);
+			check(row.equals(expected[i]), "ANSI: row " + i + " shows \"" + row + "\"");
+		}
+
+		out.write("\033[r\033[5;1H\nC".getBytes("iso-8859-1")); // the whole window scrolls again
+		out.flush();
+		check(TestAnsiOutputStream.row(window, 0).equals("3") && TestAnsiOutputStream.row(window, 4).equals("C"), 
+				"ANSI: after reset, rows \"" + TestAnsiOutputStream.row(window, 0) + "\" to \"" + TestAnsiOutputStream.row(window, 4) + "\"");
+	}
+
+
+	private static void testWindow() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		window.output("top\n1\n2\n3\nbottom");
+		window.setScrollRegion(1, 3);
+		window.setCursorPosition(0, 3);
+		for (int i = 0; i < 50; i++)
+			window.output("\n" + i);
+		String text = export(window);
+		String separator = System.getProperty("line.separator");
+		String expected = "top" + separator + "47" + separator + "48" + separator + "49" + separator + "bottom" + separator;
+		check(text.equals(expected), "window: exported \"" + text + "\"");
+
+		boolean rejected = false;
+		try {
+			window.setScrollRegion(3, 5);
+		}
+		catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		check(rejected, "window: a region below the screen was accepted");
+	}
+
+
+	static String export(Java2DTextWindow window) throws Exception {
+		StringWriter out = new StringWriter();
+		new TextWindowExporter(window, TextWindowExporter.TEXT).export(out);
+		return out.toString();
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+}
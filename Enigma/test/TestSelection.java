@@ -0,0 +1,73 @@
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+
+import enigma.console.java2d.Java2DTextWindow;
+
+/**
+ * Selects and copies text in a window, and then changes the window before reading
+ * the copy.  The copy must hold the text as it was when it was made, both the rows
+ * which were on the screen and those in the scrollback.
+ */
+public class TestSelection {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testScreenRows();
+		testScrollbackAndScreenRows();
+		System.out.println(passed ? "PASS: selection" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// rows on the screen are copied when the selection is, so clearing the screen
+	// afterwards does not change the copy
+	private static void testScreenRows() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		window.output("prompt> ls");
+		window.selectAll();
+		Transferable copy = window.getSelectionContents();
+		clearScreen(window);
+		window.output("redrawn");
+		String text = (String) copy.getTransferData(DataFlavor.stringFlavor);
+		check(text.startsWith("prompt> ls"), "screen rows: pasted \"" + text + "\"");
+	}
+
+
+	// rows already in the scrollback are read at paste time, followed by the copied
+	// screen rows, even once those have scrolled into the scrollback themselves
+	private static void testScrollbackAndScreenRows() throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(20, 5, 100);
+		for (int i = 0; i < 10; i++)
+			window.output("line " + i + "\n");
+		window.output("last");
+		window.selectAll();
+		Transferable copy = window.getSelectionContents();
+		clearScreen(window);
+		for (int i = 0; i < 3; i++)
+			window.output("later " + i + "\n");
+		String text = (String) copy.getTransferData(DataFlavor.stringFlavor);
+		StringBuffer expected = new StringBuffer();
+		for (int i = 0; i < 10; i++)
+			expected.append("line " + i + "\n");
+		expected.append("last");
+		check(text.trim().equals(expected.toString()), "scrollback and screen rows: pasted \"" + text + "\"");
+	}
+
+
+	// overwrites every cell of the screen with spaces, as a full-screen program does
+	private static void clearScreen(Java2DTextWindow window) {
+		for (int y = 0; y < window.getRows(); y++) {
+			for (int x = 0; x < window.getColumns(); x++)
+				window.output(x, y, ' ');
+		}
+		window.setCursorPosition(0, 0);
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
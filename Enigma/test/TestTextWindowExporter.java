@@ -0,0 +1,57 @@
+import java.io.StringWriter;
+
+import enigma.console.java2d.Java2DTextWindow;
+import enigma.console.java2d.TextWindowExporter;
+
+/**
+ * Exports the history of a window as text and HTML.  Characters outside the Basic
+ * Multilingual Plane, which the window holds as surrogate pairs, must be written to
+ * HTML as a single character reference each, and an unpaired surrogate as the
+ * replacement character.
+ */
+public class TestTextWindowExporter {
+	private static final String FACE = "\ud83d\ude00"; // U+1F600
+
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testText();
+		testSurrogatePairs();
+		System.out.println(passed ? "PASS: export" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// plain text is written as it is, without trailing spaces or blank rows
+	private static void testText() throws Exception {
+		String text = export("one\ntwo " + FACE + "\n\n", TextWindowExporter.TEXT);
+		String separator = System.getProperty("line.separator");
+		String expected = "one" + separator + "two " + FACE + separator;
+		check(text.equals(expected), "text: exported \"" + text + "\"");
+	}
+
+
+	// surrogate pairs become one reference to the code point
+	private static void testSurrogatePairs() throws Exception {
+		String html = export("a" + FACE + "b\ud83d!", TextWindowExporter.HTML);
+		check(html.indexOf("a&#128512;b&#65533;!") != -1, "surrogates: exported \"" + html + "\"");
+		check(html.indexOf("&#55357;") == -1 && html.indexOf("&#56832;") == -1, "surrogates: a half of a pair was exported");
+	}
+
+
+	private static String export(String output, int format) throws Exception {
+		Java2DTextWindow window = new Java2DTextWindow(40, 5, 100);
+		window.output(output);
+		StringWriter out = new StringWriter();
+		new TextWindowExporter(window, format).export(out);
+		return out.toString();
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
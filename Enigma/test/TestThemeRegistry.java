@@ -0,0 +1,102 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.security.Policy;
+import java.security.PrivilegedAction;
+import java.security.ProtectionDomain;
+
+import enigma.console.TextAttributes;
+import enigma.core.Enigma;
+
+/**
+ * Looks up text attributes from a user theme file which changes while the program
+ * runs, under a security manager.  A caller with no permissions at all must still be
+ * able to look attributes up, and must see the edited theme once it is reloaded.
+ */
+public class TestThemeRegistry {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("theme", ".properties");
+		file.deleteOnExit();
+		writeTheme(file, "attributes.emphasis = 10, 20, 30", 0);
+		Enigma.setThemeFile(file);
+		check(Enigma.getSystemTextAttributes("attributes.emphasis").getForeground().equals(new Color(10, 20, 30)),
+				"initial theme not loaded");
+
+		// code from the class path may do anything;  code with no code source may do nothing
+		Policy.setPolicy(new Policy() {
+			public PermissionCollection getPermissions(CodeSource codesource) {
+				Permissions result = new Permissions();
+				if (codesource != null)
+					result.add(new AllPermission());
+				return result;
+			}
+
+			public boolean implies(ProtectionDomain domain, Permission permission) {
+				return domain.getCodeSource() != null;
+			}
+		});
+		System.setSecurityManager(new SecurityManager());
+
+		writeTheme(file, "attributes.emphasis = 40, 50, 60", 5000);
+		Thread.sleep(1200); // longer than the registry's check interval
+		Object result = lookUpWithoutPermissions("attributes.emphasis");
+		if (result instanceof SecurityException)
+			check(false, "lookup without permissions threw " + result);
+		else
+			check(((TextAttributes) result).getForeground().equals(new Color(40, 50, 60)), "edited theme not loaded: " + result);
+
+		System.setSecurityManager(null);
+		System.out.println(passed ? "PASS: theme registry" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// looks up attributes as code with no permissions, returning the attributes or the
+	// SecurityException thrown
+	private static Object lookUpWithoutPermissions(final String key) {
+		ProtectionDomain unprivileged = new ProtectionDomain(null, new Permissions());
+		AccessControlContext context = new AccessControlContext(new ProtectionDomain[] { unprivileged });
+		return AccessController.doPrivileged(new PrivilegedAction<Object>() {
+			public Object run() {
+				try {
+					return Enigma.getSystemTextAttributes(key);
+				}
+				catch (SecurityException e) {
+					return e;
+				}
+			}
+		}, context);
+	}
+
+
+	// writes a theme file, and moves its modification time forward so that the change is
+	// seen even on file systems with coarse timestamps
+	private static void writeTheme(File file, String line, long age) throws Exception {
+		Writer out = new FileWriter(file);
+		try {
+			out.write(line + "\n");
+		}
+		finally {
+			out.close();
+		}
+		file.setLastModified(System.currentTimeMillis() + age);
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+import java.awt.event.KeyEvent;
+
+import enigma.console.Console;
+import enigma.console.DefaultConsoleImpl;
+import enigma.console.TextWindow;
+
+/**
+ * Types into consoles while no line is being read, and then reads a line.  A long
+ * line typed ahead, with each key pressed, typed and released, must be read in
+ * full;  once the typeahead queue is full, further keys must be refused rather than
+ * earlier ones discarded;  a key taken with pollKey must not also be replayed into
+ * the line, nor a replayed key returned by pollKey;  and keys typed while the
+ * program polls key state must not be replayed at all.
+ */
+public class TestTypeahead {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testLongLine();
+		testFullQueue();
+		testPolledKeys();
+		testKeyStatePolling();
+		System.out.println(passed ? "PASS: typeahead" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	// every key of a line longer than the key event queue reaches the line editor
+	private static void testLongLine() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		String line = text(5000);
+		window.press(line + "\n");
+		String result = readLine(console);
+		check(line.equals(result), "long line: read " + (result != null ? result.length() + " characters" : "nothing") + " of " + line.length());
+	}
+
+
+	// keys beyond the capacity of the typeahead queue are refused, and the keys typed
+	// first are kept
+	private static void testFullQueue() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		String line = text(DefaultConsoleImpl.TYPEAHEAD_SIZE + 100);
+		window.type(line + "\n"); // the newline is refused too
+		ReadThread reader = new ReadThread(console);
+		reader.join(500);
+		check(reader.isAlive(), "full queue: a line was completed by a refused key");
+		window.type("\n");
+		reader.join(5000);
+		String expected = line.substring(0, DefaultConsoleImpl.TYPEAHEAD_SIZE);
+		check(expected.equals(reader.result), "full queue: read " + (reader.result != null ? reader.result.length() + " characters" : "nothing")
+				+ " instead of the first " + expected.length());
+	}
+
+
+	// a key is delivered either by pollKey or as typeahead, never both
+	private static void testPolledKeys() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		window.type("ab\n");
+		KeyEvent polled = console.pollKey();
+		check(polled != null && polled.getKeyChar() == 'a', "polled keys: pollKey returned " + polled);
+		String result = readLine(console);
+		check("b".equals(result), "polled keys: read \"" + result + "\"");
+		polled = console.pollKey();
+		check(polled == null, "polled keys: pollKey returned the replayed key " + polled);
+	}
+
+
+	// keys typed while a program polls isKeyDown are its input, not typeahead, however
+	// many there are
+	private static void testKeyStatePolling() throws Exception {
+		KeyWindow window = new KeyWindow();
+		Console console = new DefaultConsoleImpl(window);
+		console.isKeyDown(KeyEvent.VK_A);
+		window.press(text(DefaultConsoleImpl.TYPEAHEAD_SIZE + 100) + "\n");
+		ReadThread reader = new ReadThread(console);
+		long end = System.currentTimeMillis() + 5000;
+		while (window.getCursorType() != TextWindow.CURSOR_INSERT && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		window.type("x\n");
+		reader.join(5000);
+		check("x".equals(reader.result), "key state polling: read " + (reader.result != null ? reader.result.length() + " characters" : "nothing")
+				+ " instead of the line typed after the polling");
+	}
+
+
+	private static String text(int length) {
+		StringBuffer result = new StringBuffer(length);
+		for (int i = 0; i < length; i++)
+			result.append((char) ('a' + i % 26));
+		return result.toString();
+	}
+
+
+	private static String readLine(Console console) throws Exception {
+		ReadThread reader = new ReadThread(console);
+		reader.join(5000);
+		return reader.result;
+	}
+
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAIL: " + failure);
+			passed = false;
+		}
+	}
+
+
+	private static class ReadThread extends Thread {
+		private final Console console;
+		volatile String result;
+
+		ReadThread(Console console) {
+			this.console = console;
+			start();
+		}
+
+		public void run() {
+			result = console.readLine();
+		}
+	}
+}
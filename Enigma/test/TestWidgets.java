@@ -0,0 +1,121 @@
+import enigma.console.MemoryTextWindow;
+import enigma.console.TextAttributes;
+import enigma.console.widgets.ProgressBar;
+import enigma.console.widgets.Spinner;
+import enigma.console.widgets.StatusLine;
+import enigma.console.widgets.Table;
+
+/**
+ * Drives each widget against a <code>MemoryTextWindow</code>, checking both what it
+ * draws and that an update only writes the cells which changed.
+ */
+public class TestWidgets {
+	private static boolean passed = true;
+
+	public static void main(String[] args) throws Exception {
+		testStatusLine();
+		testProgressBar();
+		testSpinner();
+		testTable();
+		System.out.println(passed ? "PASS: widgets" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static void testStatusLine() {
+		CountingWindow window = new CountingWindow(20, 3);
+		StatusLine status = new StatusLine(window, 2);
+		status.setText("hello");
+		check(window.writes == 20, "status line: first paint wrote " + window.writes + " cells");
+		window.writes = 0;
+		status.setText("help");
+		check(window.writes == 2, "status line: update wrote " + window.writes + " cells");
+		status.setRightText("12:00");
+		check(row(window, 2).equals(" help         12:00"), "status line: \"" + row(window, 2) + "\"");
+		window.writes = 0;
+		status.invalidate();
+		status.repaint();
+		check(window.writes == 20, "status line: invalidated repaint wrote " + window.writes + " cells");
+	}
+
+
+	private static void testProgressBar() {
+		CountingWindow window = new CountingWindow(20, 1);
+		ProgressBar bar = new ProgressBar(window, 0, 0, 20);
+		bar.setValue(50);
+		check(row(window, 0).equals("[######       ]  50%"), "progress bar: \"" + row(window, 0) + "\"");
+		window.writes = 0;
+		bar.setValue(51);
+		check(window.writes == 1, "progress bar: update wrote " + window.writes + " cells");
+		window.writes = 0;
+		bar.setValue(51);
+		check(window.writes == 0, "progress bar: unchanged value wrote " + window.writes + " cells");
+		bar.setValue(500);
+		check(bar.getValue() == 100 && row(window, 0).endsWith("] 100%"), "progress bar: \"" + row(window, 0) + "\"");
+	}
+
+
+	private static void testSpinner() {
+		CountingWindow window = new CountingWindow(20, 1);
+		Spinner spinner = new Spinner(window, 0, 0, 20);
+		spinner.setMessage("busy");
+		check(row(window, 0).equals("| busy"), "spinner: \"" + row(window, 0) + "\"");
+		window.writes = 0;
+		spinner.tick();
+		check(window.writes == 1 && window.getChar(0, 0) == '/', 
+				"spinner: tick wrote " + window.writes + " cells, showing '" + window.getChar(0, 0) + "'");
+	}
+
+
+	private static void testTable() {
+		CountingWindow window = new CountingWindow(30, 3);
+		Table table = new Table(window, 0, 0, 30, 3, new String[] { "name", "size" });
+		table.addRow(new String[] { "a", "1" });
+		table.addRow(new String[] { "b", "2" });
+		table.addRow(new String[] { "c", "3" });
+		check(row(window, 0).equals("name  size"), "table: header \"" + row(window, 0) + "\"");
+		check(row(window, 1).equals("b     2") && row(window, 2).equals("c     3"), 
+				"table: rows \"" + row(window, 1) + "\", \"" + row(window, 2) + "\"");
+		table.setMaximumColumnWidth(4);
+		table.addRow(new String[] { "abcdefgh", "4" });
+		check(row(window, 2).equals("abc~  4"), "table: truncated row \"" + row(window, 2) + "\"");
+		table.clear();
+		check(row(window, 1).length() == 0 && row(window, 2).length() == 0, "table: cleared");
+	}
+
+
+	private static String row(MemoryTextWindow window, int y) {
+		StringBuffer result = new StringBuffer();
+		for (int x = 0; x < window.getColumns(); x++)
+			result.append(window.getChar(x, y));
+		int end = result.length();
+		while (end > 0 && result.charAt(end - 1) == ' ')
+			end--;
+		return result.substring(0, end);
+	}
+
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			passed = false;
+			System.out.println("FAILED: " + message);
+		}
+	}
+
+
+	// counts the cells widgets write
+	private static class CountingWindow extends MemoryTextWindow {
+		int writes;
+
+
+		CountingWindow(int columns, int rows) {
+			super(columns, rows);
+		}
+
+
+		public synchronized void output(int x, int y, char c, TextAttributes attributes) {
+			writes++;
+			super.output(x, y, c, attributes);
+		}
+	}
+}